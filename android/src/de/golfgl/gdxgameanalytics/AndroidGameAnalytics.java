@@ -26,7 +26,8 @@ public class AndroidGameAnalytics extends GameAnalytics {
     }
 
     /**
-     * Registers a handler for catching all uncaught exceptions to send them to GA.
+     * Registers a handler for catching all uncaught exceptions to send them to GA. Crashes are spooled to local
+     * storage and sent on next session start, unless another crash spool file was set.
      */
     public void registerUncaughtExceptionHandler() {
 
@@ -34,6 +35,8 @@ public class AndroidGameAnalytics extends GameAnalytics {
         if (androidUncaughtExceptionHandler != null)
             return;
 
+        useDefaultCrashSpool();
+
         androidUncaughtExceptionHandler = Thread.getDefaultUncaughtExceptionHandler();
 
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
@@ -0,0 +1,43 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+
+/**
+ * Headless libGDX application and initialized GameAnalytics instances sending to a {@link StubGameAnalyticsServer}
+ */
+class BenchmarkSetup {
+    static final String GAME_KEY = "5c6bcb5402204249437fb5a7a80a4959";
+    static final String SECRET_KEY = "16813a12f718bc5c620f56944e1abc3ea13ccbac";
+
+    static synchronized void initApplication() {
+        if (Gdx.app == null)
+            Gdx.app = new HeadlessApplication(new ApplicationAdapter() {
+            });
+
+        // logging would dominate the measurements
+        Gdx.app.setLogLevel(Application.LOG_ERROR);
+    }
+
+    /**
+     * @return GameAnalytics with an open session
+     */
+    static GameAnalytics startSession(StubGameAnalyticsServer server) throws InterruptedException {
+        initApplication();
+        GameAnalytics ga = new GameAnalytics();
+        ga.url = server.getUrl();
+        ga.setGameKey(GAME_KEY);
+        ga.setGameSecretKey(SECRET_KEY);
+        ga.setPlatform(GameAnalytics.Platform.Linux);
+        ga.setPlatformVersionString("1");
+        ga.startSession();
+
+        for (int i = 0; i < 250 && !ga.isInitialized(); i++)
+            Thread.sleep(20);
+        if (!ga.isInitialized())
+            throw new IllegalStateException("Session not started");
+        return ga;
+    }
+}
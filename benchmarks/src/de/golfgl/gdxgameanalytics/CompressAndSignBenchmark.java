@@ -0,0 +1,95 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Compressing and signing a typical batch of 100 design events: a new GZIPOutputStream and Mac per request, hashing
+ * the finished compressed array, against the reused {@link GzipHmacContext} hashing while compressing. Compressing
+ * and signing are also measured on their own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressAndSignBenchmark {
+    private static final int BATCH_SIZE = 100;
+    private static final String SECRET_KEY = "16813a12f718bc5c620f56944e1abc3ea13ccbac";
+
+    private final EventEncoder encoder = new EventEncoder(16 * 1024);
+    private final GzipHmacContext context = new GzipHmacContext(4 * 1024);
+    private byte[] compressedBatch;
+
+    @Setup
+    public void setup() {
+        encoder.beginArray();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            AnnotatedEvent event = new AnnotatedEvent();
+            event.set(AnnotatedEvent.CATEGORY_DESIGN, 1525600000L + i, "0c1e2f4a-6f5e-4a8b-9b58-0d5e1f1c2b3a", 3);
+            event.addEventIdPart("kill");
+            event.addEventIdPart(i % 2 == 0 ? "robot" : "alien");
+            event.addEventIdPart("level" + i % 7);
+            event.setValue(i * 13);
+            encoder.beginObject();
+            EncoderBenchmark.writeSharedAnnotations(encoder);
+            event.writeFields(encoder);
+            encoder.endObject();
+        }
+        encoder.endArray();
+
+        context.compress(encoder.getBytes(), encoder.size(), null);
+        compressedBatch = Arrays.copyOf(context.getOutput(), context.getOutputLength());
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.dispose();
+    }
+
+    @Benchmark
+    public byte[] newStreamAndMac() throws IOException, GeneralSecurityException {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(encoder.size());
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
+        gzipOutputStream.write(encoder.getBytes(), 0, encoder.size());
+        gzipOutputStream.close();
+        byte[] compressed = byteArrayOutputStream.toByteArray();
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA256"));
+        return mac.doFinal(compressed);
+    }
+
+    @Benchmark
+    public int compressOnly() {
+        context.compress(encoder.getBytes(), encoder.size(), null);
+        return context.getOutputLength();
+    }
+
+    @Benchmark
+    public byte[] signOnly() throws GeneralSecurityException {
+        Mac mac = context.getMac(SECRET_KEY);
+        return mac.doFinal(compressedBatch);
+    }
+
+    @Benchmark
+    public byte[] reusedContext() throws GeneralSecurityException {
+        Mac mac = context.getMac(SECRET_KEY);
+        context.compress(encoder.getBytes(), encoder.size(), mac);
+        return mac.doFinal();
+    }
+}
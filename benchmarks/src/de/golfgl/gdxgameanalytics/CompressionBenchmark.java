@@ -0,0 +1,82 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+
+/**
+ * Cpu time of compressing and signing event requests per deflate level and request size, against sending them
+ * uncompressed (level 0, only signed). The compression ratio of every combination is printed on setup, so the time
+ * spent can be weighed against the bytes saved, e.g. for choosing {@link GameAnalytics#setCompressionLevel(int)}
+ * and {@link GameAnalytics#setCompressionThreshold(int)}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompressionBenchmark {
+    private static final String SECRET_KEY = "16813a12f718bc5c620f56944e1abc3ea13ccbac";
+
+    @Param({"1", "10", "100"})
+    public int events;
+
+    @Param({"0", "1", "6", "9"})
+    public int level;
+
+    private final EventEncoder encoder = new EventEncoder(16 * 1024);
+    private final GzipHmacContext context = new GzipHmacContext(4 * 1024);
+
+    @Setup
+    public void setup() {
+        encoder.beginArray();
+        for (int i = 0; i < events; i++) {
+            AnnotatedEvent event = new AnnotatedEvent();
+            event.set(AnnotatedEvent.CATEGORY_DESIGN, 1525600000L + i, "0c1e2f4a-6f5e-4a8b-9b58-0d5e1f1c2b3a", 3);
+            event.addEventIdPart("kill");
+            event.addEventIdPart(i % 2 == 0 ? "robot" : "alien");
+            event.addEventIdPart("level" + i % 7);
+            event.setValue(i * 13);
+            encoder.beginObject();
+            EncoderBenchmark.writeSharedAnnotations(encoder);
+            event.writeFields(encoder);
+            encoder.endObject();
+        }
+        encoder.endArray();
+
+        int sentBytes = encoder.size();
+        if (level > 0) {
+            context.setLevel(level);
+            context.compress(encoder.getBytes(), encoder.size(), null);
+            sentBytes = context.getOutputLength();
+        }
+        System.out.println(String.format(Locale.US, "%d events, level %d: %d bytes sent for %d, ratio %.2f",
+                events, level, sentBytes, encoder.size(), (double) encoder.size() / sentBytes));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.dispose();
+    }
+
+    @Benchmark
+    public byte[] compressAndSign() throws GeneralSecurityException {
+        Mac mac = context.getMac(SECRET_KEY);
+        if (level == 0) {
+            mac.reset();
+            mac.update(encoder.getBytes(), 0, encoder.size());
+        } else
+            context.compress(encoder.getBytes(), encoder.size(), mac);
+        return mac.doFinal();
+    }
+}
@@ -0,0 +1,188 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.JsonWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a batch of 100 events to UTF-8 bytes: the former Json.Serializable path (one String per event, joined
+ * in a StringBuilder, then getBytes()) against the streaming {@link EventEncoder}, with shared annotations encoded
+ * for every event or spliced in from a cached fragment as the flush does. Design events submitted with a precompiled
+ * {@link EventId} copy their escaped id instead of escaping it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncoderBenchmark {
+    private static final int BATCH_SIZE = 100;
+    // not constant, to have the concatenation done at runtime as in GameAnalytics
+    private static String platform = "android";
+    private static String osVersion = "8.1";
+
+    /**
+     * design: small events only, errors: every tenth event carries a long stack trace
+     */
+    @Param({"design", "errors"})
+    public String mix;
+
+    private final AnnotatedEvent[] events = new AnnotatedEvent[BATCH_SIZE];
+    private final AnnotatedEvent[] eventIdHandleEvents = new AnnotatedEvent[BATCH_SIZE];
+    private final LegacyEvent[] legacyEvents = new LegacyEvent[BATCH_SIZE];
+    private final EventEncoder encoder = new EventEncoder(16 * 1024);
+    private final EventEncoder annotationsEncoder = new EventEncoder(512);
+
+    @Setup
+    public void setup() {
+        writeSharedAnnotations(annotationsEncoder);
+
+        StringBuilder stackTrace = new StringBuilder("java.lang.IllegalStateException: something went wrong\n");
+        for (int i = 0; i < 60; i++)
+            stackTrace.append("\tat com.example.game.Screen").append(i).append(".render(Screen.java:").append(i)
+                    .append(")\n");
+
+        EventId killRobot = GameAnalytics.designEvent("kill:robot:blue");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            AnnotatedEvent event = new AnnotatedEvent();
+            AnnotatedEvent eventIdHandleEvent = new AnnotatedEvent();
+            LegacyEvent legacyEvent = new LegacyEvent();
+            boolean error = mix.equals("errors") && i % 10 == 0;
+            event.set(error ? AnnotatedEvent.CATEGORY_ERROR : AnnotatedEvent.CATEGORY_DESIGN, 1525600000L + i,
+                    "0c1e2f4a-6f5e-4a8b-9b58-0d5e1f1c2b3a", 3);
+            legacyEvent.keyValues.put("category", event.category);
+            legacyEvent.keyValues.put("client_ts", event.clientTs);
+            if (error) {
+                event.severity = "error";
+                event.message = stackTrace.toString();
+                legacyEvent.keyValues.put("severity", event.severity);
+                legacyEvent.keyValues.put("message", event.message);
+            } else {
+                event.setEventId("kill:robot:blue");
+                event.setValue(i);
+                legacyEvent.keyValues.put("event_id", "kill:robot:blue");
+                legacyEvent.keyValues.put("value", (float) i);
+            }
+            eventIdHandleEvent.set(event.category, event.clientTs, event.sessionId, event.sessionNum);
+            eventIdHandleEvent.severity = event.severity;
+            eventIdHandleEvent.message = event.message;
+            if (!error) {
+                eventIdHandleEvent.setEventId(killRobot);
+                eventIdHandleEvent.setValue(i);
+            }
+            events[i] = event;
+            eventIdHandleEvents[i] = eventIdHandleEvent;
+            legacyEvents[i] = legacyEvent;
+        }
+    }
+
+    @Benchmark
+    public byte[] jsonSerializable() throws UnsupportedEncodingException {
+        StringBuilder payload = new StringBuilder();
+        Json json = new Json();
+        json.setOutputType(JsonWriter.OutputType.json);
+        payload.append("[");
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            payload.append(json.toJson(legacyEvents[i]));
+            if (i != BATCH_SIZE - 1)
+                payload.append(",");
+        }
+        payload.append("]");
+        return payload.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public int streamingEncoder() {
+        encoder.reset();
+        encoder.beginArray();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            encoder.beginObject();
+            writeSharedAnnotations(encoder);
+            events[i].writeFields(encoder);
+            encoder.endObject();
+        }
+        encoder.endArray();
+        return encoder.size();
+    }
+
+    @Benchmark
+    public int streamingEncoderCachedAnnotations() {
+        encoder.reset();
+        encoder.beginArray();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            encoder.beginObject();
+            encoder.rawFields(annotationsEncoder.getBytes(), 0, annotationsEncoder.size());
+            events[i].writeFields(encoder);
+            encoder.endObject();
+        }
+        encoder.endArray();
+        return encoder.size();
+    }
+
+    @Benchmark
+    public int streamingEncoderEventIdHandles() {
+        encoder.reset();
+        encoder.beginArray();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            encoder.beginObject();
+            encoder.rawFields(annotationsEncoder.getBytes(), 0, annotationsEncoder.size());
+            eventIdHandleEvents[i].writeFields(encoder);
+            encoder.endObject();
+        }
+        encoder.endArray();
+        return encoder.size();
+    }
+
+    static void writeSharedAnnotations(EventEncoder encoder) {
+        encoder.field("platform", "android");
+        encoder.field("os_version", platform + " " + osVersion);
+        encoder.field("sdk_version", "rest api v2");
+        encoder.field("device", "Pixel 2");
+        encoder.field("manufacturer", "Google");
+        encoder.field("build", "1818_release");
+        encoder.field("user_id", "7ae0c76a-3319-413d-9b92-238541b8713a");
+        encoder.field("v", 2);
+    }
+
+    /**
+     * the event as it was serialized before the streaming encoder
+     */
+    static class LegacyEvent implements Json.Serializable {
+        private final Map<String, Object> keyValues = new HashMap<>();
+
+        @Override
+        public void write(Json event) {
+            event.writeValue("platform", "android");
+            event.writeValue("os_version", platform + " " + osVersion);
+            event.writeValue("sdk_version", "rest api v2");
+            event.writeValue("device", "Pixel 2");
+            event.writeValue("manufacturer", "Google");
+            event.writeValue("build", "1818_release");
+            event.writeValue("user_id", "7ae0c76a-3319-413d-9b92-238541b8713a");
+            event.writeValue("v", 2);
+            event.writeValue("session_id", "0c1e2f4a-6f5e-4a8b-9b58-0d5e1f1c2b3a");
+            event.writeValue("session_num", 3);
+
+            for (String key : keyValues.keySet()) {
+                event.writeValue(key, keyValues.get(key));
+            }
+        }
+
+        @Override
+        public void read(Json json, JsonValue jsonData) {
+            // not supported
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end flush of a batch of 100 events: submitting, building, encoding, compressing, signing and sending it
+ * over HTTP to a {@link StubGameAnalyticsServer} on localhost, until the stub has verified and parsed it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FlushBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    private StubGameAnalyticsServer server;
+    private GameAnalytics ga;
+    private int sentEvents;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        server = new StubGameAnalyticsServer(BenchmarkSetup.GAME_KEY, BenchmarkSetup.SECRET_KEY);
+        server.setKeepEvents(false);
+        ga = BenchmarkSetup.startSession(server);
+        // the user event sent on session start
+        while (server.getEventCount(AnnotatedEvent.CATEGORY_USER) == 0)
+            Thread.sleep(1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ga.dispose();
+        server.stop();
+    }
+
+    @Benchmark
+    public int flushBatch() {
+        for (int i = 0; i < BATCH_SIZE; i++)
+            ga.submitDesignEvent("kill:robot:blue", i);
+        sentEvents += BATCH_SIZE;
+
+        while (!ga.flushQueueImmediately().await(1000))
+            Thread.yield();
+        return sentEvents;
+    }
+}
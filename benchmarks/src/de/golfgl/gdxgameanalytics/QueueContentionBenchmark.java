@@ -0,0 +1,107 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.badlogic.gdx.utils.Queue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submit latency while another thread flushes the queue: three threads submit events, one thread drains up to
+ * 100 events and serializes them, as the flush does.
+ * <p>
+ * "lockedQueue" is the former synchronized libGDX Queue with the flush holding the lock while serializing,
+ * "ringBuffer" is the lock-free {@link RingBuffer} with serializing done after draining.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueueContentionBenchmark {
+    private static final int MAX_EVENTS_SENT = 100;
+    private static final int MAX_EVENTS_CACHED = 1000;
+
+    private final Queue<BenchEvent> lockedQueue = new Queue<>();
+    private final RingBuffer<BenchEvent> ringBuffer = new RingBuffer<>(MAX_EVENTS_CACHED);
+    private final BenchEvent event = new BenchEvent();
+    private final Json json = new Json();
+    private final BenchEvent[] batch = new BenchEvent[MAX_EVENTS_SENT];
+
+    public QueueContentionBenchmark() {
+        json.setOutputType(JsonWriter.OutputType.json);
+    }
+
+    @Benchmark
+    @Group("lockedQueue")
+    @GroupThreads(3)
+    public void lockedSubmit() {
+        synchronized (lockedQueue) {
+            while (lockedQueue.size > MAX_EVENTS_CACHED)
+                lockedQueue.removeFirst();
+            lockedQueue.addLast(event);
+        }
+    }
+
+    @Benchmark
+    @Group("lockedQueue")
+    @GroupThreads(1)
+    public int lockedFlush() {
+        int length = 0;
+        synchronized (lockedQueue) {
+            for (int i = 0; i < MAX_EVENTS_SENT && lockedQueue.size > 0; i++)
+                length += json.toJson(lockedQueue.removeFirst()).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    @Group("ringBuffer")
+    @GroupThreads(3)
+    public void ringBufferSubmit() {
+        while (!ringBuffer.offer(event))
+            ringBuffer.poll();
+    }
+
+    @Benchmark
+    @Group("ringBuffer")
+    @GroupThreads(1)
+    public int ringBufferFlush() {
+        int count = 0;
+        while (count < MAX_EVENTS_SENT) {
+            BenchEvent polled = ringBuffer.poll();
+            if (polled == null)
+                break;
+            batch[count++] = polled;
+        }
+
+        int length = 0;
+        for (int i = 0; i < count; i++)
+            length += json.toJson(batch[i]).length();
+        return length;
+    }
+
+    static class BenchEvent implements Json.Serializable {
+        @Override
+        public void write(Json json) {
+            json.writeValue("category", "design");
+            json.writeValue("event_id", "kill:robot:blue");
+            json.writeValue("client_ts", 1525600000L);
+            json.writeValue("session_id", "0c1e2f4a-6f5e-4a8b-9b58-0d5e1f1c2b3a");
+            json.writeValue("session_num", 3);
+        }
+
+        @Override
+        public void read(Json json, JsonValue jsonData) {
+            // not needed
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the submit methods, from one thread and from four threads at once. Flushes run on the flush worker
+ * as usual and send to a {@link StubGameAnalyticsServer}. Submitting is faster than flushing, so the queue's lanes
+ * are full and drop their oldest events most of the time: this measures the submit path including eviction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SubmitBenchmark {
+    private static final EventId KILL_ROBOT = GameAnalytics.designEvent("kill:robot:blue");
+    private static final EventId ARENA_COMPLETE = GameAnalytics.progressionEvent(
+            GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2");
+
+    private StubGameAnalyticsServer server;
+    private GameAnalytics ga;
+
+    @Setup
+    public void setup() throws IOException, InterruptedException {
+        server = new StubGameAnalyticsServer(BenchmarkSetup.GAME_KEY, BenchmarkSetup.SECRET_KEY);
+        server.setKeepEvents(false);
+        ga = BenchmarkSetup.startSession(server);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ga.dispose();
+        server.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void designEvent() {
+        ga.submitDesignEvent("kill:robot:blue", 5);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void designEventFourThreads() {
+        ga.submitDesignEvent("kill:robot:blue", 5);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void designEventHandle() {
+        ga.submitDesignEvent(KILL_ROBOT, 5);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void progressionEvent() {
+        ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2", 200, 1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void progressionEventHandle() {
+        ga.submitProgressionEvent(ARENA_COMPLETE, 200, 1);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void resourceEvent() {
+        ga.submitResourceEvent(GameAnalytics.ResourceFlowType.Source, "silver", "Consumable", "Mana potion", 5);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void mixedEventsFourThreads() {
+        ga.submitDesignEvent("kill:robot:blue", 5);
+        ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2", 200, 1);
+        ga.submitResourceEvent(GameAnalytics.ResourceFlowType.Source, "silver", "Consumable", "Mana potion", 5);
+    }
+}
@@ -0,0 +1,85 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Flushes as soon as a batch is worth sending: when the waiting events reach the byte budget or the event count,
+ * when the oldest event has waited too long, or at the latest after an idle interval. Bursts are sent within about
+ * a second, while a trickle of events is still collected into few requests.
+ * <p>
+ * The byte budget also limits the size of a request, so a batch of long error messages is split into several
+ * requests instead of one large one.
+ */
+public class AdaptiveFlushPolicy implements FlushPolicy {
+    private int maxBatchBytes = 64 * 1024;
+    private int maxBatchEvents = 100;
+    private long maxEventAgeMillis = 5000;
+    private long idleFlushMillis = 60000;
+
+    @Override
+    public boolean isFlushDue(int queuedEvents, long queuedBytes, long oldestEventAgeMillis,
+                              long millisSinceLastFlush) {
+        return queuedEvents >= maxBatchEvents
+                || queuedBytes >= maxBatchBytes
+                || oldestEventAgeMillis >= maxEventAgeMillis
+                || millisSinceLastFlush >= idleFlushMillis;
+    }
+
+    @Override
+    public int getMaxEventsPerRequest() {
+        return maxBatchEvents;
+    }
+
+    @Override
+    public int getMaxPayloadBytes() {
+        return maxBatchBytes;
+    }
+
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * @param maxBatchBytes json size of waiting events that triggers a flush, and maximum json size of a request.
+     *                      Default 64 KB
+     */
+    public void setMaxBatchBytes(int maxBatchBytes) {
+        this.maxBatchBytes = maxBatchBytes;
+    }
+
+    public int getMaxBatchEvents() {
+        return maxBatchEvents;
+    }
+
+    /**
+     * @param maxBatchEvents number of waiting events that triggers a flush, and maximum number of events in a
+     *                       request. Default 100
+     */
+    public void setMaxBatchEvents(int maxBatchEvents) {
+        if (maxBatchEvents < 1)
+            throw new IllegalArgumentException("maxBatchEvents must be at least 1");
+
+        this.maxBatchEvents = maxBatchEvents;
+    }
+
+    public long getMaxEventAgeMillis() {
+        return maxEventAgeMillis;
+    }
+
+    /**
+     * @param maxEventAgeMillis maximum time an event waits before it is sent. Default 5 seconds
+     */
+    public void setMaxEventAgeMillis(long maxEventAgeMillis) {
+        this.maxEventAgeMillis = maxEventAgeMillis;
+    }
+
+    public long getIdleFlushMillis() {
+        return idleFlushMillis;
+    }
+
+    /**
+     * @param idleFlushMillis waiting events are sent at the latest after this time since the last flush. Default
+     *                        60 seconds
+     */
+    public void setIdleFlushMillis(long idleFlushMillis) {
+        this.idleFlushMillis = idleFlushMillis;
+    }
+}
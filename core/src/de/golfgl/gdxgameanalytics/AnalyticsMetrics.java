@@ -0,0 +1,245 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Runtime metrics of the event pipeline, see {@link GameAnalytics#getMetrics()}. Counters are cumulative since the
+ * GameAnalytics instance was created, gauges are current values. Recording and reading never allocates, so this can
+ * be polled every frame or read from a {@link Listener} after each flush.
+ */
+public class AnalyticsMetrics {
+    private static final int MIN_STATUS_CODE = 100;
+    private static final int MAX_STATUS_CODE = 599;
+    private static final int QUEUED_EVENTS = 0;
+    private static final int SENT_EVENTS = 1;
+    private static final int REJECTED_EVENTS = 2;
+    private static final int REQUESTS = 3;
+    private static final int FAILED_REQUESTS = 4;
+    private static final int UNCOMPRESSED_BYTES = 5;
+    private static final int COMPRESSED_BYTES = 6;
+    private static final int COUNTER_COUNT = 7;
+
+    private final PriorityEventQueue waitingQueue;
+    private final EventThrottle throttle;
+    private final AtomicLongs counters = new AtomicLongs(COUNTER_COUNT);
+    private final AtomicLongs statusCodes = new AtomicLongs(MAX_STATUS_CODE - MIN_STATUS_CODE + 1);
+    private final Histogram flushLatency = new Histogram();
+    private final Histogram requestBytes = new Histogram();
+    private volatile int failedFlushAttempts;
+    private volatile int pendingRetryEvents;
+    private volatile int batchesInFlight;
+    // copied on write
+    private volatile Listener[] listeners = new Listener[0];
+
+    AnalyticsMetrics(PriorityEventQueue waitingQueue, EventThrottle throttle) {
+        this.waitingQueue = waitingQueue;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return number of events queued since start, including dropped ones
+     */
+    public long getQueuedEventCount() {
+        return counters.get(QUEUED_EVENTS);
+    }
+
+    /**
+     * @return number of events delivered to GameAnalytics
+     */
+    public long getSentEventCount() {
+        return counters.get(SENT_EVENTS);
+    }
+
+    /**
+     * @return number of events dropped because the server rejected them as invalid or too large
+     */
+    public long getRejectedEventCount() {
+        return counters.get(REJECTED_EVENTS);
+    }
+
+    /**
+     * @return number of events dropped from the queue because their lane was full
+     */
+    public long getDroppedEventCount() {
+        long dropped = 0;
+        for (GameAnalytics.EventPriority priority : GameAnalytics.EventPriority.values())
+            dropped += getDroppedEventCount(priority);
+        return dropped;
+    }
+
+    public long getDroppedEventCount(GameAnalytics.EventPriority priority) {
+        return waitingQueue.getDropCount(priority.ordinal());
+    }
+
+    /**
+     * @return number of events not queued because of sampling or rate limiting
+     */
+    public long getShedEventCount(GameAnalytics.EventCategory category) {
+        return throttle.getShedCount(category.ordinal());
+    }
+
+    /**
+     * @return gauge: events currently waiting to be sent
+     */
+    public int getQueueDepth() {
+        return waitingQueue.size();
+    }
+
+    public int getQueueDepth(GameAnalytics.EventPriority priority) {
+        return waitingQueue.size(priority.ordinal());
+    }
+
+    /**
+     * @return gauge: events taken from the queue for a request that failed, waiting for the next attempt
+     */
+    public int getPendingRetryEventCount() {
+        return pendingRetryEvents;
+    }
+
+    /**
+     * @return gauge: event requests sent and not answered yet
+     */
+    public int getBatchesInFlight() {
+        return batchesInFlight;
+    }
+
+    /**
+     * @return gauge: number of consecutive failed flushes, 0 after a flush got a response
+     */
+    public int getFailedFlushAttempts() {
+        return failedFlushAttempts;
+    }
+
+    /**
+     * @return number of event requests sent
+     */
+    public long getRequestCount() {
+        return counters.get(REQUESTS);
+    }
+
+    /**
+     * @return number of event requests that got no response, e.g. when offline
+     */
+    public long getFailedRequestCount() {
+        return counters.get(FAILED_REQUESTS);
+    }
+
+    /**
+     * @return number of responses with the http status code
+     */
+    public long getStatusCodeCount(int statusCode) {
+        if (statusCode < MIN_STATUS_CODE || statusCode > MAX_STATUS_CODE)
+            return 0;
+        return statusCodes.get(statusCode - MIN_STATUS_CODE);
+    }
+
+    /**
+     * @return number of responses with a status code other than 200
+     */
+    public long getErrorResponseCount() {
+        long count = 0;
+        for (int i = 0; i < statusCodes.length(); i++)
+            if (i + MIN_STATUS_CODE != 200)
+                count += statusCodes.get(i);
+        return count;
+    }
+
+    /**
+     * @return size of all event request payloads before compression
+     */
+    public long getUncompressedBytes() {
+        return counters.get(UNCOMPRESSED_BYTES);
+    }
+
+    /**
+     * @return size of all event request bodies as sent
+     */
+    public long getCompressedBytes() {
+        return counters.get(COMPRESSED_BYTES);
+    }
+
+    /**
+     * @return round trip time of event requests in milliseconds, from handing the request to the transport to the
+     * response or failure
+     */
+    public Histogram getFlushLatency() {
+        return flushLatency;
+    }
+
+    /**
+     * @return size of event request bodies as sent, in bytes
+     */
+    public Histogram getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * @param listener called after every event request got a response or failed, on the thread the transport calls
+     *                 back on. Must not block
+     */
+    public synchronized void addListener(Listener listener) {
+        Listener[] newListeners = new Listener[listeners.length + 1];
+        System.arraycopy(listeners, 0, newListeners, 0, listeners.length);
+        newListeners[listeners.length] = listener;
+        listeners = newListeners;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                Listener[] newListeners = new Listener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+                listeners = newListeners;
+                return;
+            }
+        }
+    }
+
+    void eventQueued() {
+        counters.incrementAndGet(QUEUED_EVENTS);
+    }
+
+    void requestSent(int uncompressedLength, long compressedLength) {
+        counters.incrementAndGet(REQUESTS);
+        counters.addAndGet(UNCOMPRESSED_BYTES, uncompressedLength);
+        counters.addAndGet(COMPRESSED_BYTES, compressedLength);
+        requestBytes.record(compressedLength);
+    }
+
+    void responseReceived(int statusCode, int deliveredEvents, long latencyMillis) {
+        if (statusCode >= MIN_STATUS_CODE && statusCode <= MAX_STATUS_CODE)
+            statusCodes.incrementAndGet(statusCode - MIN_STATUS_CODE);
+        counters.addAndGet(SENT_EVENTS, deliveredEvents);
+        flushLatency.record(latencyMillis);
+    }
+
+    void eventsRejected(int count) {
+        counters.addAndGet(REJECTED_EVENTS, count);
+    }
+
+    void requestFailed(long latencyMillis) {
+        counters.incrementAndGet(FAILED_REQUESTS);
+        flushLatency.record(latencyMillis);
+    }
+
+    void setFailedFlushAttempts(int failedFlushAttempts) {
+        this.failedFlushAttempts = failedFlushAttempts;
+    }
+
+    void setPendingRetryEvents(int pendingRetryEvents) {
+        this.pendingRetryEvents = pendingRetryEvents;
+    }
+
+    void setBatchesInFlight(int batchesInFlight) {
+        this.batchesInFlight = batchesInFlight;
+    }
+
+    void notifyListeners() {
+        Listener[] listeners = this.listeners;
+        for (Listener listener : listeners)
+            listener.flushCompleted(this);
+    }
+
+    public interface Listener {
+        void flushCompleted(AnalyticsMetrics metrics);
+    }
+}
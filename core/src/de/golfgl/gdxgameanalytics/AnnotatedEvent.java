@@ -0,0 +1,311 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * A queued event. Known GameAnalytics fields are held in primitive slots, so filling an event does not box values or
+ * allocate a map. Events are pooled, see {@link GameAnalytics#obtainEvent(String)}.
+ * <p>
+ * Composite event ids (progression, resource, business) are kept as parts and written joined by the encoder on the
+ * flush worker, without building the String.
+ * <p>
+ * Shared annotations (platform, device, user...) are not part of the event, they are written by {@link GameAnalytics}.
+ */
+class AnnotatedEvent implements Pool.Poolable {
+    static final String CATEGORY_USER = "user";
+    static final String CATEGORY_SESSION_END = "session_end";
+    static final String CATEGORY_DESIGN = "design";
+    static final String CATEGORY_BUSINESS = "business";
+    static final String CATEGORY_PROGRESSION = "progression";
+    static final String CATEGORY_RESOURCE = "resource";
+    static final String CATEGORY_ERROR = "error";
+
+    static final int MAX_EVENT_ID_PARTS = 5;
+
+    private static final int FIELD_VALUE = 1;
+    private static final int FIELD_AMOUNT = 1 << 1;
+    private static final int FIELD_FLOAT_AMOUNT = 1 << 2;
+    private static final int FIELD_TRANSACTION_NUM = 1 << 3;
+    private static final int FIELD_SCORE = 1 << 4;
+    private static final int FIELD_ATTEMPT_NUM = 1 << 5;
+    private static final int FIELD_LENGTH = 1 << 6;
+
+    String category;
+    long clientTs;
+    String sessionId;
+    int sessionNum;
+    final String[] eventIdParts = new String[MAX_EVENT_ID_PARTS];
+    int eventIdPartCount;
+    /**
+     * precompiled event id, set instead of the parts
+     */
+    EventId eventId;
+    String severity;
+    String message;
+    String currency;
+    float value;
+    int amount;
+    float floatAmount;
+    int transactionNum;
+    int score;
+    int attemptNum;
+    int length;
+    /**
+     * bit mask of set primitive fields
+     */
+    private int fields;
+
+    /**
+     * session of a player the event is reported for, or null for the own session of {@link GameAnalytics}
+     */
+    PlayerSession player;
+    long journalSeq;
+    /**
+     * given when the event is queued, flushes wait for it, see {@link QueueSequences}
+     */
+    long queueSeq;
+    /**
+     * uploaded from the crash spool, acknowledged there instead of being journaled
+     */
+    boolean spooled;
+
+    AnnotatedEvent set(String category, long clientTs, String sessionId, int sessionNum) {
+        this.category = category;
+        this.clientTs = clientTs;
+        this.sessionId = sessionId;
+        this.sessionNum = sessionNum;
+        return this;
+    }
+
+    void addEventIdPart(String part) {
+        eventIdParts[eventIdPartCount++] = part;
+    }
+
+    /**
+     * sets the whole event id, splitting it into parts is not needed
+     */
+    void setEventId(String eventId) {
+        eventIdPartCount = 0;
+        this.eventId = null;
+        addEventIdPart(eventId);
+    }
+
+    void setEventId(EventId eventId) {
+        eventIdPartCount = 0;
+        this.eventId = eventId;
+    }
+
+    boolean hasEventId() {
+        return eventIdPartCount > 0 || eventId != null;
+    }
+
+    void setValue(float value) {
+        this.value = value;
+        fields |= FIELD_VALUE;
+    }
+
+    void setAmount(int amount) {
+        this.amount = amount;
+        fields |= FIELD_AMOUNT;
+    }
+
+    void setFloatAmount(float amount) {
+        this.floatAmount = amount;
+        fields |= FIELD_FLOAT_AMOUNT;
+    }
+
+    void setTransactionNum(int transactionNum) {
+        this.transactionNum = transactionNum;
+        fields |= FIELD_TRANSACTION_NUM;
+    }
+
+    void setScore(int score) {
+        this.score = score;
+        fields |= FIELD_SCORE;
+    }
+
+    void setAttemptNum(int attemptNum) {
+        this.attemptNum = attemptNum;
+        fields |= FIELD_ATTEMPT_NUM;
+    }
+
+    void setLength(int length) {
+        this.length = length;
+        fields |= FIELD_LENGTH;
+    }
+
+    boolean hasValue() {
+        return (fields & FIELD_VALUE) != 0;
+    }
+
+    boolean hasAmount() {
+        return (fields & FIELD_AMOUNT) != 0;
+    }
+
+    boolean hasFloatAmount() {
+        return (fields & FIELD_FLOAT_AMOUNT) != 0;
+    }
+
+    boolean hasTransactionNum() {
+        return (fields & FIELD_TRANSACTION_NUM) != 0;
+    }
+
+    boolean hasScore() {
+        return (fields & FIELD_SCORE) != 0;
+    }
+
+    boolean hasAttemptNum() {
+        return (fields & FIELD_ATTEMPT_NUM) != 0;
+    }
+
+    boolean hasLength() {
+        return (fields & FIELD_LENGTH) != 0;
+    }
+
+    /**
+     * @return rough size of the encoded event including typical shared annotations, without encoding it. Does not
+     * change while the event is queued
+     */
+    int estimateSize() {
+        // annotations, field names, session id and numbers
+        int size = 400;
+        if (eventId != null)
+            size += eventId.encoded.length;
+        for (int i = 0; i < eventIdPartCount; i++)
+            size += eventIdParts[i].length() + 1;
+        if (message != null)
+            size += message.length();
+        return size;
+    }
+
+    /**
+     * @return true if the event as returned by the server, e.g. in an error response, is this one. Compares the
+     * identifying fields only
+     */
+    boolean matches(JsonValue event) {
+        String eventSessionId = event.getString("session_id", null);
+        if (!category.equals(event.getString("category", null)) || clientTs != event.getLong("client_ts", -1)
+                || (sessionId != null ? !sessionId.equals(eventSessionId) : eventSessionId != null))
+            return false;
+
+        String eventId = event.getString("event_id", null);
+        if (hasEventId() != (eventId != null) || eventId != null && !isEventId(eventId))
+            return false;
+
+        return message == null || message.equals(event.getString("message", null));
+    }
+
+    private boolean isEventId(String eventId) {
+        if (this.eventId != null)
+            return this.eventId.eventId.equals(eventId);
+
+        int offset = 0;
+        for (int i = 0; i < eventIdPartCount; i++) {
+            if (i > 0) {
+                if (offset >= eventId.length() || eventId.charAt(offset) != ':')
+                    return false;
+                offset++;
+            }
+            String part = eventIdParts[i];
+            if (!eventId.startsWith(part, offset))
+                return false;
+            offset += part.length();
+        }
+        return offset == eventId.length();
+    }
+
+    /**
+     * writes the event specific fields, including session information
+     */
+    void writeFields(EventEncoder encoder) {
+        encoder.field("category", category);
+        encoder.field("client_ts", clientTs);
+        encoder.field("session_id", sessionId);
+        encoder.field("session_num", sessionNum);
+        if (eventId != null)
+            encoder.field("event_id", eventId.encoded);
+        else if (hasEventId())
+            encoder.field("event_id", eventIdParts, eventIdPartCount);
+        if (severity != null)
+            encoder.field("severity", severity);
+        if (message != null)
+            encoder.field("message", message);
+        if (currency != null)
+            encoder.field("currency", currency);
+        if (hasValue())
+            encoder.field("value", value);
+        if (hasAmount())
+            encoder.field("amount", amount);
+        if (hasFloatAmount())
+            encoder.field("amount", floatAmount);
+        if (hasTransactionNum())
+            encoder.field("transaction_num", transactionNum);
+        if (hasScore())
+            encoder.field("score", score);
+        if (hasAttemptNum())
+            encoder.field("attempt_num", attemptNum);
+        if (hasLength())
+            encoder.field("length", length);
+    }
+
+    /**
+     * restores the fields written by {@link #writeFields(EventEncoder)}
+     */
+    void readFields(JsonValue record) {
+        for (JsonValue field = record.child; field != null; field = field.next) {
+            String name = field.name;
+            if (name.equals("category"))
+                category = field.asString();
+            else if (name.equals("client_ts"))
+                clientTs = field.asLong();
+            else if (name.equals("session_id"))
+                sessionId = field.asString();
+            else if (name.equals("session_num"))
+                sessionNum = field.asInt();
+            else if (name.equals("event_id"))
+                setEventId(field.asString());
+            else if (name.equals("severity"))
+                severity = field.asString();
+            else if (name.equals("message"))
+                message = field.asString();
+            else if (name.equals("currency"))
+                currency = field.asString();
+            else if (name.equals("value"))
+                setValue(field.asFloat());
+            else if (name.equals("amount")) {
+                if (CATEGORY_RESOURCE.equals(record.getString("category", null)))
+                    setFloatAmount(field.asFloat());
+                else
+                    setAmount(field.asInt());
+            } else if (name.equals("transaction_num"))
+                setTransactionNum(field.asInt());
+            else if (name.equals("score"))
+                setScore(field.asInt());
+            else if (name.equals("attempt_num"))
+                setAttemptNum(field.asInt());
+            else if (name.equals("length"))
+                setLength(field.asInt());
+        }
+    }
+
+    @Override
+    public void reset() {
+        category = null;
+        clientTs = 0;
+        sessionId = null;
+        sessionNum = 0;
+        for (int i = 0; i < eventIdPartCount; i++)
+            eventIdParts[i] = null;
+        eventIdPartCount = 0;
+        eventId = null;
+        severity = null;
+        message = null;
+        currency = null;
+        fields = 0;
+        player = null;
+        journalSeq = 0;
+        queueSeq = 0;
+        spooled = false;
+    }
+}
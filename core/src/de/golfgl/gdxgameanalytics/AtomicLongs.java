@@ -0,0 +1,55 @@
+package de.golfgl.gdxgameanalytics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed number of longs updated atomically, used for sequences and counters shared between the game's threads and
+ * the flush worker. GWT does not emulate java.util.concurrent.atomic, so the html backend replaces this class by a
+ * plain long[] version (there is only one thread there).
+ */
+final class AtomicLongs {
+    private final AtomicLongArray values;
+
+    AtomicLongs(int length) {
+        values = new AtomicLongArray(length);
+    }
+
+    int length() {
+        return values.length();
+    }
+
+    long get(int i) {
+        return values.get(i);
+    }
+
+    void set(int i, long value) {
+        values.set(i, value);
+    }
+
+    /**
+     * Sets the value without a full fence; other threads see it eventually, but never before earlier writes
+     */
+    void lazySet(int i, long value) {
+        values.lazySet(i, value);
+    }
+
+    boolean compareAndSet(int i, long expect, long update) {
+        return values.compareAndSet(i, expect, update);
+    }
+
+    long getAndIncrement(int i) {
+        return values.getAndIncrement(i);
+    }
+
+    long incrementAndGet(int i) {
+        return values.incrementAndGet(i);
+    }
+
+    long decrementAndGet(int i) {
+        return values.decrementAndGet(i);
+    }
+
+    long addAndGet(int i, long delta) {
+        return values.addAndGet(i, delta);
+    }
+}
@@ -0,0 +1,47 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Pool;
+
+/**
+ * Pool like libGDX' {@link Pool}, but safe to use from several threads without locking: free objects are kept in a
+ * {@link RingBuffer}. Objects are obtained by the submitting threads and freed by the flush worker or the response
+ * listener.
+ * <p>
+ * Neither obtaining a free object nor freeing allocates.
+ */
+abstract class ConcurrentPool<T extends Pool.Poolable> {
+    private final RingBuffer<T> freeObjects;
+
+    /**
+     * @param max maximum number of free objects kept. Rounded up to the next power of two
+     */
+    ConcurrentPool(int max) {
+        freeObjects = new RingBuffer<>(max);
+    }
+
+    protected abstract T newObject();
+
+    /**
+     * @return a free object, or a new one if the pool is empty
+     */
+    T obtain() {
+        T object = freeObjects.poll();
+        return object != null ? object : newObject();
+    }
+
+    /**
+     * resets the object and puts it back into the pool. If the pool is full, the object is left to the garbage
+     * collector
+     */
+    void free(T object) {
+        if (object == null)
+            throw new IllegalArgumentException("object cannot be null.");
+
+        object.reset();
+        freeObjects.offer(object);
+    }
+
+    int getFree() {
+        return freeObjects.size();
+    }
+}
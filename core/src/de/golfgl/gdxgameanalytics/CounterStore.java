@@ -0,0 +1,85 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Preferences;
+
+/**
+ * Hands out increasing numbers kept in preferences, without writing the preferences on every increment.
+ * <p>
+ * Numbers are reserved in blocks: only the highest reserved number is written, numbers up to it are handed out from
+ * memory. When half of a block is used, the next one is reserved by {@link #reserve()}, normally called on the
+ * flush worker. Only if a block is used up before its successor was written, {@link #next()} writes on the calling
+ * thread. After a crash or restart, the rest of the block is skipped - numbers are never handed out twice.
+ * <p>
+ * Thread-safe. The preferences are written and flushed in background, so nobody else may use them: on Android,
+ * a flush while another thread puts values can lose them.
+ */
+class CounterStore {
+    private final Preferences prefs;
+    private final String key;
+    private final int blockSize;
+    private int current;
+    // highest number written to the preferences
+    private int reserved;
+    private int reserveTarget;
+
+    /**
+     * @param key preferences key. Holds the highest reserved number, which is compatible with a key holding the last
+     *            number handed out
+     */
+    CounterStore(Preferences prefs, String key, int blockSize) {
+        this.prefs = prefs;
+        this.key = key;
+        this.blockSize = blockSize;
+        synchronized (prefs) {
+            reserved = prefs.getInteger(key, 0);
+        }
+        current = reserved;
+        reserveTarget = reserved + blockSize;
+    }
+
+    int next() {
+        while (true) {
+            synchronized (this) {
+                if (current < reserved) {
+                    current++;
+                    if (reserveTarget <= reserved && reserved - current < blockSize / 2)
+                        reserveTarget = reserved + blockSize;
+                    return current;
+                }
+                // the block reserved in background is used up
+                if (reserveTarget <= reserved)
+                    reserveTarget = reserved + blockSize;
+            }
+            reserve();
+        }
+    }
+
+    /**
+     * @return true if {@link #reserve()} has to write a new block
+     */
+    synchronized boolean isReserveNeeded() {
+        return reserveTarget > reserved;
+    }
+
+    /**
+     * writes the next block's reservation and flushes the preferences. Does disk i/o, so call this on the flush
+     * worker
+     */
+    void reserve() {
+        synchronized (prefs) {
+            int target;
+            synchronized (this) {
+                if (reserveTarget <= reserved)
+                    return;
+                target = reserveTarget;
+            }
+
+            prefs.putInteger(key, target);
+            prefs.flush();
+
+            synchronized (this) {
+                reserved = Math.max(reserved, target);
+            }
+        }
+    }
+}
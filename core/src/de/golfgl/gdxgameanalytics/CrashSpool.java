@@ -0,0 +1,91 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.IOException;
+
+/**
+ * Small file of error events written by the uncaught exception handler, uploaded on next session start.
+ * <p>
+ * Writing a crash appends one line and fsyncs it, without any network i/o on the crash path. Uploading reads all
+ * lines, the file is removed when every uploaded event is acknowledged as delivered or dropped. So a crash before
+ * the upload succeeded leaves the spool intact for the launch after.
+ */
+class CrashSpool {
+    private final FileHandle file;
+    private int pendingEvents;
+    // content handed out by the running upload, crashes spooled after it are kept on cleanup
+    private String uploadedContent;
+
+    CrashSpool(FileHandle file) {
+        this.file = file;
+    }
+
+    /**
+     * appends a record and returns not before it is written to the storage device
+     *
+     * @param record json representation of the event, without line breaks
+     */
+    synchronized void write(String record) throws IOException {
+        GwtIncompatibleStuff.appendToFile(file, record + "\n", true);
+    }
+
+    /**
+     * hands all spooled records to the consumer, in the order they were written. Every record must be
+     * acknowledged, also if it could not be read. Does nothing while a former upload is still pending.
+     *
+     * @return number of records handed to the consumer
+     */
+    synchronized int upload(RecordConsumer consumer) {
+        if (pendingEvents > 0 || !file.exists())
+            return 0;
+
+        String content = file.readString("UTF-8");
+        String[] lines = content.split("\n");
+        int records = 0;
+        for (String line : lines)
+            if (!line.isEmpty())
+                records++;
+        if (records == 0) {
+            file.delete();
+            return 0;
+        }
+
+        uploadedContent = content;
+        pendingEvents = records;
+        for (String line : lines)
+            if (!line.isEmpty())
+                consumer.consume(line);
+        return records;
+    }
+
+    /**
+     * marks an uploaded record as done. When all are done, the uploaded records are removed from the file
+     */
+    synchronized void acknowledge() {
+        if (pendingEvents <= 0 || --pendingEvents > 0)
+            return;
+
+        String uploaded = uploadedContent;
+        uploadedContent = null;
+        try {
+            String content = file.exists() ? file.readString("UTF-8") : "";
+            if (content.length() > uploaded.length() && content.startsWith(uploaded))
+                GwtIncompatibleStuff.replaceFile(file, content.substring(uploaded.length()));
+            else
+                file.delete();
+        } catch (Throwable t) {
+            // uploaded again on next start, better twice than never
+            Gdx.app.error(GameAnalytics.TAG, "Could not clean up crash spool", t);
+        }
+    }
+
+    synchronized int getPendingEvents() {
+        return pendingEvents;
+    }
+
+    interface RecordConsumer {
+        void consume(String record);
+    }
+}
@@ -0,0 +1,91 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+/**
+ * Collects count, sum, min and max of design event values per event id, so chatty events are sent as one summary
+ * per aggregation window instead of one event per call.
+ * <p>
+ * Event ids are interned to int handles on first use, statistics are kept in primitive arrays indexed by handle.
+ * Handles are kept over windows, so aggregating an already known id does not allocate. Ids beyond the capacity are
+ * not aggregated.
+ * <p>
+ * Thread-safe: adding and draining are short synchronized sections.
+ */
+class DesignEventAggregator {
+    private final ObjectIntMap<String> handles;
+    private final String[] eventIds;
+    private final int[] counts;
+    private final double[] sums;
+    private final float[] mins;
+    private final float[] maxs;
+    private int size;
+
+    DesignEventAggregator(int maxEventIds) {
+        handles = new ObjectIntMap<>(maxEventIds);
+        eventIds = new String[maxEventIds];
+        counts = new int[maxEventIds];
+        sums = new double[maxEventIds];
+        mins = new float[maxEventIds];
+        maxs = new float[maxEventIds];
+    }
+
+    /**
+     * @return false if the event id is not aggregated because the capacity is exhausted
+     */
+    synchronized boolean add(String eventId, float value) {
+        int handle = handles.get(eventId, -1);
+        if (handle < 0) {
+            if (size == eventIds.length)
+                return false;
+            handle = size++;
+            handles.put(eventId, handle);
+            eventIds[handle] = eventId;
+        }
+
+        if (counts[handle] == 0) {
+            mins[handle] = value;
+            maxs[handle] = value;
+        } else {
+            mins[handle] = Math.min(mins[handle], value);
+            maxs[handle] = Math.max(maxs[handle], value);
+        }
+        counts[handle]++;
+        sums[handle] += value;
+        return true;
+    }
+
+    /**
+     * hands the summary of every event id added since the last drain to the consumer and starts a new window
+     */
+    synchronized void drain(GameAnalytics.AggregatedValue aggregatedValue, SummaryConsumer consumer) {
+        for (int handle = 0; handle < size; handle++) {
+            int count = counts[handle];
+            if (count == 0)
+                continue;
+
+            consumer.consume(eventIds[handle], summarize(handle, aggregatedValue));
+            counts[handle] = 0;
+            sums[handle] = 0;
+        }
+    }
+
+    private float summarize(int handle, GameAnalytics.AggregatedValue aggregatedValue) {
+        switch (aggregatedValue) {
+            case Count:
+                return counts[handle];
+            case Min:
+                return mins[handle];
+            case Max:
+                return maxs[handle];
+            case Mean:
+                return (float) (sums[handle] / counts[handle]);
+            default:
+                return (float) sums[handle];
+        }
+    }
+
+    interface SummaryConsumer {
+        void consume(String eventId, float value);
+    }
+}
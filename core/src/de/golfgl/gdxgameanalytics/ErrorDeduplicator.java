@@ -0,0 +1,219 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectSet;
+
+/**
+ * Deduplicates error events. Errors are identified by a fingerprint of their severity and normalized stack frames,
+ * so the same bug reported with different exception messages or line numbers counts as one. Errors without stack
+ * frames are identified by their message as is. The first occurrence is sent,
+ * repeats within the window are only counted and sent as one summary when the window ends.
+ * <p>
+ * A fingerprint is kept over windows as long as it recurs, so a hot bug costs one summary event per window.
+ * Fingerprints beyond the capacity are not deduplicated.
+ * <p>
+ * Thread-safe: registering and draining are synchronized, errors are rare compared to other events.
+ */
+class ErrorDeduplicator {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final String FRAME_PREFIX = "\tat ";
+    private static final String CAUSE_PREFIX = "Caused by: ";
+    private static final int MAX_REPEATED_BLOCK_LENGTH = 8;
+
+    private final int maxFingerprints;
+    private final LongMap<Occurrence> occurrences = new LongMap<>();
+    private final Array<Occurrence> freeOccurrences = new Array<>();
+    private final Array<Occurrence> drained = new Array<>();
+
+    ErrorDeduplicator(int maxFingerprints) {
+        this.maxFingerprints = maxFingerprints;
+    }
+
+    /**
+     * @return true if the error should be sent now, false if it is a repeat and was counted
+     */
+    synchronized boolean register(long fingerprint, String severity, String message) {
+        Occurrence occurrence = occurrences.get(fingerprint);
+        if (occurrence != null) {
+            occurrence.repeats++;
+            return false;
+        }
+
+        if (occurrences.size < maxFingerprints) {
+            occurrence = freeOccurrences.size > 0 ? freeOccurrences.pop() : new Occurrence();
+            occurrence.severity = severity;
+            occurrence.message = message;
+            occurrences.put(fingerprint, occurrence);
+        }
+        return true;
+    }
+
+    /**
+     * hands a summary of every error repeated in this window to the consumer and starts a new window. Errors not
+     * repeated are forgotten
+     */
+    synchronized void drain(SummaryConsumer consumer) {
+        LongMap.Keys keys = occurrences.keys();
+        while (keys.hasNext) {
+            long fingerprint = keys.next();
+            Occurrence occurrence = occurrences.get(fingerprint);
+            if (occurrence.repeats > 0) {
+                consumer.consume(occurrence.severity, occurrence.message, occurrence.repeats);
+                occurrence.repeats = 0;
+            } else {
+                keys.remove();
+                drained.add(occurrence);
+            }
+        }
+
+        for (int i = 0; i < drained.size; i++) {
+            Occurrence occurrence = drained.get(i);
+            occurrence.severity = null;
+            occurrence.message = null;
+            freeOccurrences.add(occurrence);
+        }
+        drained.clear();
+    }
+
+    /**
+     * @return hash of severity and the normalized stack frames: only exception classes and frames are taken into
+     * account, digits within frames (line numbers, generated class names) are skipped. Messages without stack frames
+     * are hashed verbatim, a number in them might be all that distinguishes two errors. Does not allocate
+     */
+    static long fingerprint(String severity, String message) {
+        long hash = hash(FNV_OFFSET_BASIS, severity, 0, severity.length(), false);
+
+        int length = message.length();
+        if (message.indexOf(FRAME_PREFIX) < 0)
+            return hash(hash, message, 0, length, false);
+
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = message.indexOf('\n', lineStart);
+            if (lineEnd < 0)
+                lineEnd = length;
+
+            if (message.startsWith(FRAME_PREFIX, lineStart))
+                hash = hash(hash, message, lineStart, lineEnd, true);
+            else if (lineStart == 0 || message.startsWith(CAUSE_PREFIX, lineStart))
+                // the exception class, but not its message
+                hash = hash(hash, message, lineStart, exceptionClassEnd(message, lineStart, lineEnd), false);
+
+            lineStart = lineEnd + 1;
+        }
+        return hash;
+    }
+
+    private static int exceptionClassEnd(String message, int lineStart, int lineEnd) {
+        int classStart = message.startsWith(CAUSE_PREFIX, lineStart) ? lineStart + CAUSE_PREFIX.length() : lineStart;
+        int colon = message.indexOf(':', classStart);
+        return colon >= 0 && colon < lineEnd ? colon : lineEnd;
+    }
+
+    private static long hash(long hash, String s, int start, int end, boolean skipDigits) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (skipDigits && c >= '0' && c <= '9')
+                continue;
+            hash ^= c;
+            hash *= FNV_PRIME;
+        }
+        // separator, so "ab" + "c" differs from "a" + "bc"
+        hash ^= '\n';
+        hash *= FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * compacts a stack trace: repeated blocks of frames (like recursion) are written once, causes with a trace
+     * already written are reduced to their first line
+     */
+    static String compact(String trace) {
+        if (trace.indexOf(FRAME_PREFIX) < 0)
+            return trace;
+
+        String[] lines = trace.split("\n");
+        StringBuilder compacted = new StringBuilder(trace.length());
+        ObjectSet<String> writtenSections = new ObjectSet<>();
+
+        int sectionStart = 0;
+        while (sectionStart < lines.length) {
+            int sectionEnd = sectionStart + 1;
+            while (sectionEnd < lines.length && !lines[sectionEnd].startsWith(CAUSE_PREFIX))
+                sectionEnd++;
+
+            StringBuilder frames = new StringBuilder();
+            compactFrames(lines, sectionStart + 1, sectionEnd, frames);
+            String header = lines[sectionStart];
+            // the cause's message is ignored, a wrapper often repeats it
+            String section = header.substring(0, exceptionClassEnd(header, 0, header.length())) + frames;
+
+            if (compacted.length() > 0)
+                compacted.append('\n');
+            compacted.append(header);
+            if (writtenSections.add(section))
+                compacted.append(frames);
+            else
+                compacted.append("\n\t... same trace as above");
+
+            sectionStart = sectionEnd;
+        }
+
+        return compacted.toString();
+    }
+
+    private static void compactFrames(String[] lines, int start, int end, StringBuilder out) {
+        int i = start;
+        while (i < end) {
+            int blockLength = 0;
+            int repeats = 0;
+            for (int length = 1; length <= MAX_REPEATED_BLOCK_LENGTH && i + 2 * length <= end; length++) {
+                int blockRepeats = countRepeats(lines, i, length, end);
+                if (blockRepeats > 0) {
+                    blockLength = length;
+                    repeats = blockRepeats;
+                    break;
+                }
+            }
+
+            if (repeats == 0) {
+                out.append('\n').append(lines[i]);
+                i++;
+            } else {
+                for (int j = 0; j < blockLength; j++)
+                    out.append('\n').append(lines[i + j]);
+                out.append("\n\t... ").append(blockLength == 1 ? "frame" : blockLength + " frames")
+                        .append(" repeated ").append(repeats).append(" times");
+                i += blockLength * (repeats + 1);
+            }
+        }
+    }
+
+    /**
+     * @return how often the block of lines starting at start is repeated right after itself
+     */
+    private static int countRepeats(String[] lines, int start, int length, int end) {
+        int repeats = 0;
+        int next = start + length;
+        while (next + length <= end) {
+            for (int j = 0; j < length; j++)
+                if (!lines[start + j].equals(lines[next + j]))
+                    return repeats;
+            repeats++;
+            next += length;
+        }
+        return repeats;
+    }
+
+    interface SummaryConsumer {
+        void consume(String severity, String message, int repeats);
+    }
+
+    private static class Occurrence {
+        String severity;
+        String message;
+        int repeats;
+    }
+}
@@ -0,0 +1,35 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Events taken from the waiting queue to be sent with one request. A batch keeps its events until the server
+ * accepted or rejected them, so batches in flight at the same time are acknowledged independently. Batches not
+ * accepted are sent again in order of their sequence.
+ */
+class EventBatch {
+    final Array<AnnotatedEvent> events;
+    long sequence;
+    int attempts;
+
+    EventBatch(int capacity) {
+        events = new Array<>(capacity);
+    }
+
+    /**
+     * moves the events from index on into the other batch, which gets the same sequence
+     */
+    void splitInto(EventBatch other, int index) {
+        other.sequence = sequence;
+        other.attempts = attempts;
+        for (int i = index; i < events.size; i++)
+            other.events.add(events.get(i));
+        events.truncate(index);
+    }
+
+    void reset() {
+        events.clear();
+        sequence = 0;
+        attempts = 0;
+    }
+}
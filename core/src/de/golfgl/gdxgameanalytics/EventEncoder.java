@@ -0,0 +1,255 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.ByteArray;
+
+/**
+ * Streaming JSON encoder for the GameAnalytics event schema. Writes UTF-8 directly into a reusable growable byte
+ * buffer, so a batch exists only once on the heap and is handed to compression without intermediate Strings.
+ * <p>
+ * Not thread-safe. The flush worker keeps one instance and calls {@link #reset()} before each payload.
+ */
+class EventEncoder {
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e',
+            'f'};
+
+    private final ByteArray buffer;
+    private boolean needsComma;
+
+    EventEncoder(int initialCapacity) {
+        buffer = new ByteArray(initialCapacity);
+    }
+
+    void reset() {
+        buffer.clear();
+        needsComma = false;
+    }
+
+    /**
+     * @return the buffer's backing array. Only the first {@link #size()} bytes are valid
+     */
+    byte[] getBytes() {
+        return buffer.items;
+    }
+
+    int size() {
+        return buffer.size;
+    }
+
+    /**
+     * @return copy of the encoded bytes
+     */
+    byte[] toArray() {
+        return buffer.toArray();
+    }
+
+    void beginArray() {
+        separate();
+        buffer.add((byte) '[');
+        needsComma = false;
+    }
+
+    void endArray() {
+        buffer.add((byte) ']');
+        needsComma = true;
+    }
+
+    void beginObject() {
+        separate();
+        buffer.add((byte) '{');
+        needsComma = false;
+    }
+
+    void endObject() {
+        buffer.add((byte) '}');
+        needsComma = true;
+    }
+
+    void field(String name, String value) {
+        name(name);
+        if (value == null)
+            writeAscii("null");
+        else
+            writeString(value);
+    }
+
+    void field(String name, long value) {
+        name(name);
+        writeLong(value);
+    }
+
+    void field(String name, float value) {
+        name(name);
+        writeFloat(value);
+    }
+
+    /**
+     * writes a string value whose parts are joined by a colon, without joining them in memory
+     */
+    void field(String name, String[] parts, int partCount) {
+        name(name);
+        buffer.add((byte) '"');
+        for (int i = 0; i < partCount; i++) {
+            if (i > 0)
+                buffer.add((byte) ':');
+            writeEscaped(parts[i]);
+        }
+        buffer.add((byte) '"');
+    }
+
+    /**
+     * writes a string value already escaped and encoded by {@link #escape(String)}
+     */
+    void field(String name, byte[] escapedValue) {
+        name(name);
+        buffer.add((byte) '"');
+        buffer.addAll(escapedValue);
+        buffer.add((byte) '"');
+    }
+
+    /**
+     * @return value JSON-escaped and UTF-8 encoded, without quotes
+     */
+    static byte[] escape(String value) {
+        EventEncoder encoder = new EventEncoder(value.length() + 8);
+        encoder.writeEscaped(value);
+        return encoder.toArray();
+    }
+
+    /**
+     * writes already encoded bytes of one or more fields, e.g. cached annotations
+     */
+    void rawFields(byte[] bytes, int offset, int length) {
+        if (length == 0)
+            return;
+
+        separate();
+        buffer.addAll(bytes, offset, length);
+        needsComma = true;
+    }
+
+    private void name(String name) {
+        separate();
+        buffer.add((byte) '"');
+        // field names of the schema are plain ascii
+        writeAscii(name);
+        add((byte) '"', (byte) ':');
+        needsComma = true;
+    }
+
+    private void add(byte b1, byte b2) {
+        buffer.add(b1);
+        buffer.add(b2);
+    }
+
+    private void add(byte b1, byte b2, byte b3) {
+        buffer.add(b1);
+        buffer.add(b2);
+        buffer.add(b3);
+    }
+
+    private void add(byte b1, byte b2, byte b3, byte b4) {
+        buffer.add(b1);
+        buffer.add(b2);
+        buffer.add(b3);
+        buffer.add(b4);
+    }
+
+    private void separate() {
+        if (needsComma)
+            buffer.add((byte) ',');
+    }
+
+    private void writeAscii(String ascii) {
+        int length = ascii.length();
+        buffer.ensureCapacity(length);
+        for (int i = 0; i < length; i++)
+            buffer.add((byte) ascii.charAt(i));
+    }
+
+    private void writeString(String value) {
+        buffer.add((byte) '"');
+        writeEscaped(value);
+        buffer.add((byte) '"');
+    }
+
+    private void writeEscaped(String value) {
+        int length = value.length();
+        buffer.ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\')
+                    buffer.add((byte) '\\');
+                buffer.add((byte) c);
+            } else if (c < 0x20) {
+                writeControlChar(c);
+            } else if (c < 0x800) {
+                add((byte) (0xc0 | c >> 6), (byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                add((byte) (0xf0 | codePoint >> 18), (byte) (0x80 | codePoint >> 12 & 0x3f),
+                        (byte) (0x80 | codePoint >> 6 & 0x3f), (byte) (0x80 | codePoint & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, replaced like String.getBytes() does
+                buffer.add((byte) '?');
+            } else {
+                add((byte) (0xe0 | c >> 12), (byte) (0x80 | c >> 6 & 0x3f), (byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    private void writeControlChar(char c) {
+        switch (c) {
+            case '\n':
+                add((byte) '\\', (byte) 'n');
+                break;
+            case '\r':
+                add((byte) '\\', (byte) 'r');
+                break;
+            case '\t':
+                add((byte) '\\', (byte) 't');
+                break;
+            case '\b':
+                add((byte) '\\', (byte) 'b');
+                break;
+            case '\f':
+                add((byte) '\\', (byte) 'f');
+                break;
+            default:
+                add((byte) '\\', (byte) 'u', (byte) '0', (byte) '0');
+                add(HEX[c >> 4], HEX[c & 0xf]);
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer.add((byte) '-');
+            value = -value;
+        }
+
+        long divisor = 1;
+        while (divisor <= value / 10)
+            divisor *= 10;
+        while (divisor > 0) {
+            buffer.add((byte) ('0' + value / divisor));
+            value %= divisor;
+            divisor /= 10;
+        }
+    }
+
+    private void writeFloat(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value))
+            // not valid in json
+            writeAscii("0");
+        else if (value == (long) value && Math.abs(value) < 1e15f)
+            // most values are integral, no need for allocating a String
+            writeLong((long) value);
+        else
+            writeAscii(Float.toString(value));
+    }
+}
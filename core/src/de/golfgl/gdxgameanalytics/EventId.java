@@ -0,0 +1,73 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Precompiled event id for submitting the same design, progression or resource event again and again. The id is
+ * validated once against the GameAnalytics rules and kept JSON-escaped as UTF-8, so submitting and encoding it
+ * skips all string building and escaping.
+ * <p>
+ * Obtain instances with {@link GameAnalytics#designEvent(String)},
+ * {@link GameAnalytics#progressionEvent(GameAnalytics.ProgressionStatus, String...)} or
+ * {@link GameAnalytics#resourceEvent(GameAnalytics.ResourceFlowType, String, String, String)} and keep them, e.g. in
+ * static fields. Instances are immutable and can be shared between threads.
+ */
+public final class EventId {
+    static final int MAX_PART_LENGTH = 64;
+
+    final String category;
+    final String eventId;
+    final byte[] encoded;
+    final GameAnalytics.ProgressionStatus progressionStatus;
+
+    EventId(String category, String eventId, GameAnalytics.ProgressionStatus progressionStatus) {
+        this.category = category;
+        this.eventId = eventId;
+        this.encoded = EventEncoder.escape(eventId);
+        this.progressionStatus = progressionStatus;
+    }
+
+    /**
+     * @return the category the id can be submitted for, e.g. "design"
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    @Override
+    public String toString() {
+        return eventId;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the id has less or more parts than allowed, or a part is empty, too long or
+     *                                  contains characters not allowed by GameAnalytics
+     */
+    static void validate(String eventId, int minParts, int maxParts) {
+        int parts = 0;
+        int partStart = 0;
+        while (partStart <= eventId.length()) {
+            int partEnd = eventId.indexOf(':', partStart);
+            if (partEnd < 0)
+                partEnd = eventId.length();
+            validatePart(eventId, partStart, partEnd);
+            parts++;
+            partStart = partEnd + 1;
+        }
+
+        if (parts < minParts || parts > maxParts)
+            throw new IllegalArgumentException("Event id must have " + minParts + " to " + maxParts + " parts: "
+                    + eventId);
+    }
+
+    private static void validatePart(String eventId, int start, int end) {
+        if (end == start || end - start > MAX_PART_LENGTH)
+            throw new IllegalArgumentException("Event id parts must have 1 to " + MAX_PART_LENGTH + " characters: "
+                    + eventId);
+
+        for (int i = start; i < end; i++) {
+            char c = eventId.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')
+                    && " \t-_.()!?".indexOf(c) < 0)
+                throw new IllegalArgumentException("Character '" + c + "' not allowed in event id: " + eventId);
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Append-only journal of queued events on local storage, so events still waiting to be sent survive a killed
+ * process.
+ * <p>
+ * The journal is a binary file of records, each starting with its type:
+ * <ul>
+ * <li>string: a category, event id part, severity or currency, referenced by its index from then on</li>
+ * <li>session: session id, session number and the timestamp events of the session are stored relative to</li>
+ * <li>event: sequence number, string indices, session index and the fields set. Numbers are varints</li>
+ * <li>ack: sequence number of an event that was sent (or dropped)</li>
+ * </ul>
+ * So a pending design event takes about 15 bytes instead of 150 as JSON. Replaying reads the file sequentially and
+ * does not parse any JSON.
+ * <p>
+ * Appending only fills an in-memory buffer, the buffer is written and fsync'd by {@link #sync()} which is called
+ * on a schedule from the flush worker. So journaling adds no disk round trip per event.
+ * <p>
+ * When all journaled events are acknowledged, the file is deleted. When it grows too large, it is compacted on the
+ * flush worker to contain only the string and session records and the pending events. Appending continues while
+ * compacting, string and session indices are kept.
+ */
+class EventJournal {
+    private static final byte[] MAGIC = {'G', 'A', 'J', 1};
+    private static final byte RECORD_STRING = 1;
+    private static final byte RECORD_SESSION = 2;
+    private static final byte RECORD_EVENT = 3;
+    private static final byte RECORD_ACK = 4;
+    private static final int COMPACT_THRESHOLD_BYTES = 256 * 1024;
+
+    private static final int FIELD_EVENT_ID = 1;
+    private static final int FIELD_SEVERITY = 1 << 1;
+    private static final int FIELD_MESSAGE = 1 << 2;
+    private static final int FIELD_CURRENCY = 1 << 3;
+    private static final int FIELD_VALUE = 1 << 4;
+    private static final int FIELD_AMOUNT = 1 << 5;
+    private static final int FIELD_FLOAT_AMOUNT = 1 << 6;
+    private static final int FIELD_TRANSACTION_NUM = 1 << 7;
+    private static final int FIELD_SCORE = 1 << 8;
+    private static final int FIELD_ATTEMPT_NUM = 1 << 9;
+    private static final int FIELD_LENGTH = 1 << 10;
+
+    private final FileHandle file;
+    // held for the file i/o of sync, compact and replay. Flush workers may run jobs concurrently, and two syncs
+    // appending to, compacting or deleting the file at the same time would corrupt it. Taken before the journal's lock
+    private final Object fileLock = new Object();
+    private ByteArray buffer = new ByteArray(4096);
+    private ByteArray writeBuffer = new ByteArray(4096);
+    private long nextSeq = 1;
+    private int pendingEvents;
+    private boolean syncNeeded;
+    // the buffer starts a new file, so the header is written first
+    private boolean headerNeeded = true;
+
+    // indices of strings and sessions defined in the file
+    private final ObjectIntMap<String> stringIndices = new ObjectIntMap<>();
+    private final ObjectIntMap<String> sessionIndices = new ObjectIntMap<>();
+    private final IntArray sessionNums = new IntArray();
+    private final LongArray sessionBaseTimestamps = new LongArray();
+    private final int[] eventIdPartIndices = new int[AnnotatedEvent.MAX_EVENT_ID_PARTS];
+
+    EventJournal(FileHandle file) {
+        this.file = file;
+    }
+
+    /**
+     * @param event with all fields set, shared annotations are not journaled
+     * @return sequence number to use for {@link #acknowledge(long)}
+     */
+    synchronized long append(AnnotatedEvent event) {
+        if (headerNeeded) {
+            buffer.addAll(MAGIC);
+            headerNeeded = false;
+        }
+
+        // strings and sessions are defined before the event referencing them
+        int category = indexOf(event.category);
+        int session = event.sessionId != null ? sessionIndexOf(event.sessionId, event.sessionNum, event.clientTs)
+                : -1;
+        int eventIdParts = 0;
+        if (event.eventId != null)
+            eventIdPartIndices[eventIdParts++] = indexOf(event.eventId.eventId);
+        else
+            for (; eventIdParts < event.eventIdPartCount; eventIdParts++)
+                eventIdPartIndices[eventIdParts] = indexOf(event.eventIdParts[eventIdParts]);
+        int severity = event.severity != null ? indexOf(event.severity) : -1;
+        int currency = event.currency != null ? indexOf(event.currency) : -1;
+
+        int fields = (eventIdParts > 0 ? FIELD_EVENT_ID : 0)
+                | (severity >= 0 ? FIELD_SEVERITY : 0)
+                | (event.message != null ? FIELD_MESSAGE : 0)
+                | (currency >= 0 ? FIELD_CURRENCY : 0)
+                | (event.hasValue() ? FIELD_VALUE : 0)
+                | (event.hasAmount() ? FIELD_AMOUNT : 0)
+                | (event.hasFloatAmount() ? FIELD_FLOAT_AMOUNT : 0)
+                | (event.hasTransactionNum() ? FIELD_TRANSACTION_NUM : 0)
+                | (event.hasScore() ? FIELD_SCORE : 0)
+                | (event.hasAttemptNum() ? FIELD_ATTEMPT_NUM : 0)
+                | (event.hasLength() ? FIELD_LENGTH : 0);
+
+        long seq = nextSeq++;
+        buffer.add(RECORD_EVENT);
+        writeVarLong(buffer, seq);
+        writeVarLong(buffer, category);
+        writeVarLong(buffer, session + 1);
+        writeVarLong(buffer, zigZag(event.clientTs - (session >= 0 ? sessionBaseTimestamps.get(session) : 0)));
+        writeVarLong(buffer, fields);
+        if (eventIdParts > 0) {
+            writeVarLong(buffer, eventIdParts);
+            for (int i = 0; i < eventIdParts; i++)
+                writeVarLong(buffer, eventIdPartIndices[i]);
+        }
+        if (severity >= 0)
+            writeVarLong(buffer, severity);
+        if (event.message != null)
+            writeString(buffer, event.message);
+        if (currency >= 0)
+            writeVarLong(buffer, currency);
+        if (event.hasValue())
+            writeFloat(buffer, event.value);
+        if (event.hasAmount())
+            writeVarLong(buffer, zigZag(event.amount));
+        if (event.hasFloatAmount())
+            writeFloat(buffer, event.floatAmount);
+        if (event.hasTransactionNum())
+            writeVarLong(buffer, zigZag(event.transactionNum));
+        if (event.hasScore())
+            writeVarLong(buffer, zigZag(event.score));
+        if (event.hasAttemptNum())
+            writeVarLong(buffer, zigZag(event.attemptNum));
+        if (event.hasLength())
+            writeVarLong(buffer, zigZag(event.length));
+
+        pendingEvents++;
+        syncNeeded = true;
+        return seq;
+    }
+
+    /**
+     * marks an event as done, it won't be replayed anymore. Call this for sent events as well as for dropped ones
+     */
+    synchronized void acknowledge(long seq) {
+        if (seq <= 0)
+            return;
+
+        buffer.add(RECORD_ACK);
+        writeVarLong(buffer, seq);
+        pendingEvents--;
+        syncNeeded = true;
+    }
+
+    synchronized boolean isSyncNeeded() {
+        return syncNeeded;
+    }
+
+    /**
+     * writes buffered records to disk, normally called from the flush worker. A sync called while another one is
+     * writing waits for it, so records are written in order
+     */
+    void sync() {
+        synchronized (fileLock) {
+            ByteArray toWrite;
+            boolean allAcknowledged;
+            synchronized (this) {
+                if (!syncNeeded)
+                    return;
+
+                // swap buffers so appending threads are not blocked by disk i/o
+                toWrite = buffer;
+                buffer = writeBuffer;
+                writeBuffer = toWrite;
+                allAcknowledged = pendingEvents <= 0;
+                syncNeeded = false;
+                if (allAcknowledged)
+                    startNewFile();
+            }
+
+            try {
+                if (allAcknowledged) {
+                    if (file.exists())
+                        file.delete();
+                } else {
+                    GwtIncompatibleStuff.appendToFile(file, toWrite.items, toWrite.size, true);
+
+                    if (file.length() > COMPACT_THRESHOLD_BYTES)
+                        compact();
+                }
+            } catch (Throwable t) {
+                Gdx.app.error(GameAnalytics.TAG, "Could not write event journal", t);
+            } finally {
+                toWrite.clear();
+            }
+        }
+    }
+
+    /**
+     * reads all events that were not acknowledged from disk and hands them to the consumer in the order they were
+     * appended. Their sequence numbers stay valid. Call this before any new event is appended.
+     *
+     * @return number of replayed events
+     */
+    int replay(EventConsumer consumer) {
+        synchronized (fileLock) {
+            return replayFile(consumer);
+        }
+    }
+
+    private synchronized int replayFile(EventConsumer consumer) {
+        startNewFile();
+        byte[] content = file.exists() ? file.readBytes() : null;
+        if (content == null || content.length == 0)
+            return 0;
+
+        Scan scan = new Scan(content);
+        if (!scan.valid) {
+            Gdx.app.error(GameAnalytics.TAG, "Discarding event journal of unknown format");
+            file.delete();
+            return 0;
+        }
+        if (scan.end < content.length) {
+            // incomplete last record after a crash, new records must not be appended after it
+            Gdx.app.debug(GameAnalytics.TAG, "Skipping corrupt journal tail");
+            try {
+                GwtIncompatibleStuff.replaceFile(file, content, scan.end);
+            } catch (Throwable t) {
+                Gdx.app.error(GameAnalytics.TAG, "Could not repair event journal", t);
+            }
+        }
+
+        // continue the file's indices
+        headerNeeded = false;
+        for (int i = 0; i < scan.strings.size; i++)
+            stringIndices.put(scan.strings.get(i), i);
+        for (int i = 0; i < scan.sessionIds.size; i++)
+            sessionIndices.put(scan.sessionIds.get(i), i);
+        sessionNums.addAll(scan.sessionNums);
+        sessionBaseTimestamps.addAll(scan.sessionBaseTimestamps);
+
+        int replayed = 0;
+        for (int i = 0; i < scan.eventSeqs.size; i++) {
+            long seq = scan.eventSeqs.get(i);
+            nextSeq = Math.max(nextSeq, seq + 1);
+            if (scan.acknowledged.containsKey(seq))
+                continue;
+
+            AnnotatedEvent event = consumer.obtain();
+            scan.position = scan.eventStarts.get(i);
+            scan.readEvent(event);
+            consumer.consume(seq, event);
+            replayed++;
+        }
+        pendingEvents = replayed;
+        return replayed;
+    }
+
+    /**
+     * rewrites the file with the string and session records and the pending events only. Records appended in the
+     * meantime are written after it by the next sync, they reference strings and sessions by the same indices
+     */
+    void compact() throws IOException {
+        synchronized (fileLock) {
+            byte[] content = file.readBytes();
+            Scan scan = new Scan(content);
+            if (!scan.valid)
+                return;
+
+            ByteArray compacted = new ByteArray(scan.definitions.size + 64);
+            compacted.addAll(MAGIC);
+            compacted.addAll(scan.definitions);
+            for (int i = 0; i < scan.eventSeqs.size; i++) {
+                if (!scan.acknowledged.containsKey(scan.eventSeqs.get(i))) {
+                    int start = scan.eventStarts.get(i);
+                    compacted.addAll(content, start, scan.eventEnds.get(i) - start);
+                }
+            }
+
+            GwtIncompatibleStuff.replaceFile(file, compacted.items, compacted.size);
+        }
+    }
+
+    private void startNewFile() {
+        headerNeeded = true;
+        stringIndices.clear();
+        sessionIndices.clear();
+        sessionNums.clear();
+        sessionBaseTimestamps.clear();
+    }
+
+    private int indexOf(String string) {
+        int index = stringIndices.get(string, -1);
+        if (index < 0) {
+            index = stringIndices.size;
+            stringIndices.put(string, index);
+            buffer.add(RECORD_STRING);
+            writeString(buffer, string);
+        }
+        return index;
+    }
+
+    private int sessionIndexOf(String sessionId, int sessionNum, long clientTs) {
+        int index = sessionIndices.get(sessionId, -1);
+        if (index < 0 || sessionNums.get(index) != sessionNum) {
+            index = sessionNums.size;
+            sessionIndices.put(sessionId, index);
+            sessionNums.add(sessionNum);
+            sessionBaseTimestamps.add(clientTs);
+            buffer.add(RECORD_SESSION);
+            writeString(buffer, sessionId);
+            writeVarLong(buffer, sessionNum);
+            writeVarLong(buffer, clientTs);
+        }
+        return index;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArray out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.add((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.add((byte) value);
+    }
+
+    private static void writeFloat(ByteArray out, float value) {
+        int bits = Float.floatToIntBits(value);
+        out.add((byte) (bits >>> 24));
+        out.add((byte) (bits >>> 16));
+        out.add((byte) (bits >>> 8));
+        out.add((byte) bits);
+    }
+
+    private static void writeString(ByteArray out, String value) {
+        try {
+            byte[] bytes = value.getBytes("UTF-8");
+            writeVarLong(out, bytes.length);
+            out.addAll(bytes);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * reads a journal file's records sequentially, up to the first incomplete or unknown one
+     */
+    private static class Scan {
+        final byte[] content;
+        int position;
+        boolean valid;
+        /**
+         * end of the last complete record
+         */
+        int end;
+        final Array<String> strings = new Array<>();
+        final Array<String> sessionIds = new Array<>();
+        final IntArray sessionNums = new IntArray();
+        final LongArray sessionBaseTimestamps = new LongArray();
+        /**
+         * the string and session records, as read
+         */
+        final ByteArray definitions = new ByteArray();
+        final LongArray eventSeqs = new LongArray();
+        final IntArray eventStarts = new IntArray();
+        final IntArray eventEnds = new IntArray();
+        final LongMap<Object> acknowledged = new LongMap<>();
+
+        Scan(byte[] content) {
+            this.content = content;
+            if (content.length < MAGIC.length)
+                return;
+            for (int i = 0; i < MAGIC.length; i++)
+                if (content[i] != MAGIC[i])
+                    return;
+            valid = true;
+
+            position = MAGIC.length;
+            end = position;
+            AnnotatedEvent event = new AnnotatedEvent();
+            try {
+                while (position < content.length) {
+                    int start = position;
+                    byte type = content[position];
+                    if (type != RECORD_EVENT)
+                        position++;
+                    if (type == RECORD_STRING)
+                        strings.add(readString());
+                    else if (type == RECORD_SESSION) {
+                        String sessionId = readString();
+                        int sessionNum = (int) readVarLong();
+                        long baseTimestamp = readVarLong();
+                        sessionIds.add(sessionId);
+                        sessionNums.add(sessionNum);
+                        sessionBaseTimestamps.add(baseTimestamp);
+                    } else if (type == RECORD_EVENT) {
+                        long seq = readEvent(event);
+                        event.reset();
+                        eventSeqs.add(seq);
+                        eventStarts.add(start);
+                        eventEnds.add(position);
+                    } else if (type == RECORD_ACK)
+                        acknowledged.put(readVarLong(), null);
+                    else
+                        break;
+
+                    if (type == RECORD_STRING || type == RECORD_SESSION)
+                        definitions.addAll(content, start, position - start);
+                    end = position;
+                }
+            } catch (RuntimeException e) {
+                // incomplete record, the file ends before it
+            }
+        }
+
+        /**
+         * reads the event record starting at position
+         *
+         * @return sequence number
+         */
+        long readEvent(AnnotatedEvent event) {
+            position++;
+            long seq = readVarLong();
+            String category = strings.get((int) readVarLong());
+            int session = (int) readVarLong() - 1;
+            long clientTs = unZigZag(readVarLong()) + (session >= 0 ? sessionBaseTimestamps.get(session) : 0);
+            event.set(category, clientTs, session >= 0 ? sessionIds.get(session) : null,
+                    session >= 0 ? sessionNums.get(session) : 0);
+
+            int fields = (int) readVarLong();
+            if ((fields & FIELD_EVENT_ID) != 0) {
+                int parts = (int) readVarLong();
+                if (parts > AnnotatedEvent.MAX_EVENT_ID_PARTS)
+                    throw new IllegalStateException("Too many event id parts");
+                for (int i = 0; i < parts; i++)
+                    event.addEventIdPart(strings.get((int) readVarLong()));
+            }
+            if ((fields & FIELD_SEVERITY) != 0)
+                event.severity = strings.get((int) readVarLong());
+            if ((fields & FIELD_MESSAGE) != 0)
+                event.message = readString();
+            if ((fields & FIELD_CURRENCY) != 0)
+                event.currency = strings.get((int) readVarLong());
+            if ((fields & FIELD_VALUE) != 0)
+                event.setValue(readFloat());
+            if ((fields & FIELD_AMOUNT) != 0)
+                event.setAmount((int) unZigZag(readVarLong()));
+            if ((fields & FIELD_FLOAT_AMOUNT) != 0)
+                event.setFloatAmount(readFloat());
+            if ((fields & FIELD_TRANSACTION_NUM) != 0)
+                event.setTransactionNum((int) unZigZag(readVarLong()));
+            if ((fields & FIELD_SCORE) != 0)
+                event.setScore((int) unZigZag(readVarLong()));
+            if ((fields & FIELD_ATTEMPT_NUM) != 0)
+                event.setAttemptNum((int) unZigZag(readVarLong()));
+            if ((fields & FIELD_LENGTH) != 0)
+                event.setLength((int) unZigZag(readVarLong()));
+            return seq;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = content[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+
+        private float readFloat() {
+            int bits = (content[position] & 0xFF) << 24 | (content[position + 1] & 0xFF) << 16
+                    | (content[position + 2] & 0xFF) << 8 | (content[position + 3] & 0xFF);
+            position += 4;
+            return Float.intBitsToFloat(bits);
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > content.length)
+                throw new IllegalStateException("String exceeds journal");
+            String string;
+            try {
+                string = new String(content, position, length, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            position += length;
+            return string;
+        }
+    }
+
+    interface EventConsumer {
+        /**
+         * @return a reset event to read a journaled one into
+         */
+        AnnotatedEvent obtain();
+
+        void consume(long seq, AnnotatedEvent event);
+    }
+}
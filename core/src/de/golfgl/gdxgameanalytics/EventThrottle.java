@@ -0,0 +1,104 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * Decides per category if a submitted event is kept, before an event is obtained from the pool: sampling keeps a
+ * fixed share of events, rate limiting is a token bucket.
+ * <p>
+ * Sampling is deterministic, every event's share is added up and it is kept when the sum passes a whole number. So
+ * a rate of 0.25 keeps exactly every fourth event, without a shared random generator.
+ * <p>
+ * The token bucket is implemented as generic cell rate algorithm: only the theoretical arrival time of the next
+ * event is kept per category and advanced by CAS, so checking is lock-free and does not allocate.
+ */
+class EventThrottle {
+    private final long startNanos = TimeUtils.nanoTime();
+    // copied on write, null entries are not throttled
+    private volatile Limit[] limits;
+    private final AtomicLongs sampleCounts;
+    private final AtomicLongs theoreticalArrivals;
+    private final AtomicLongs shedCounts;
+
+    EventThrottle(int categoryCount) {
+        limits = new Limit[categoryCount];
+        sampleCounts = new AtomicLongs(categoryCount);
+        theoreticalArrivals = new AtomicLongs(categoryCount);
+        shedCounts = new AtomicLongs(categoryCount);
+    }
+
+    /**
+     * @return true if an event of the category should be queued, false if it is shed
+     */
+    boolean accept(int category) {
+        Limit limit = limits[category];
+        if (limit == null)
+            return true;
+
+        if (limit.samplingRate < 1f) {
+            long count = sampleCounts.getAndIncrement(category);
+            double samplingRate = limit.samplingRate;
+            if ((long) ((count + 1) * samplingRate) == (long) (count * samplingRate)) {
+                shedCounts.incrementAndGet(category);
+                return false;
+            }
+        }
+
+        if (limit.emissionIntervalNanos > 0) {
+            long now = TimeUtils.nanoTime() - startNanos;
+            while (true) {
+                long arrival = theoreticalArrivals.get(category);
+                long next = Math.max(arrival, now);
+                if (next - now > limit.burstToleranceNanos) {
+                    shedCounts.incrementAndGet(category);
+                    return false;
+                }
+                if (theoreticalArrivals.compareAndSet(category, arrival, next + limit.emissionIntervalNanos))
+                    return true;
+            }
+        }
+
+        return true;
+    }
+
+    synchronized void setSamplingRate(int category, float samplingRate) {
+        Limit limit = limits[category];
+        setLimit(category, samplingRate, limit != null ? limit.emissionIntervalNanos : 0,
+                limit != null ? limit.burstToleranceNanos : 0);
+    }
+
+    /**
+     * @param eventsPerSecond sustained rate. 0 or less for no limit
+     * @param burst           number of events accepted at once before the rate applies
+     */
+    synchronized void setRateLimit(int category, float eventsPerSecond, int burst) {
+        Limit limit = limits[category];
+        long emissionIntervalNanos = eventsPerSecond > 0 ? (long) (1000000000L / (double) eventsPerSecond) : 0;
+        setLimit(category, limit != null ? limit.samplingRate : 1f, emissionIntervalNanos,
+                emissionIntervalNanos * Math.max(0, burst - 1));
+    }
+
+    long getShedCount(int category) {
+        return shedCounts.get(category);
+    }
+
+    private void setLimit(int category, float samplingRate, long emissionIntervalNanos, long burstToleranceNanos) {
+        Limit[] newLimits = new Limit[limits.length];
+        System.arraycopy(limits, 0, newLimits, 0, limits.length);
+        newLimits[category] = samplingRate >= 1f && emissionIntervalNanos <= 0 ? null
+                : new Limit(samplingRate, emissionIntervalNanos, burstToleranceNanos);
+        limits = newLimits;
+    }
+
+    private static class Limit {
+        final float samplingRate;
+        final long emissionIntervalNanos;
+        final long burstToleranceNanos;
+
+        Limit(float samplingRate, long emissionIntervalNanos, long burstToleranceNanos) {
+            this.samplingRate = samplingRate;
+            this.emissionIntervalNanos = emissionIntervalNanos;
+            this.burstToleranceNanos = burstToleranceNanos;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Array;
+
+/**
+ * Completion of a flush, returned by {@link GameAnalytics#flushQueueImmediately()} and
+ * {@link GameAnalytics#closeSession()}. Done when all events queued before the flush was requested are
+ * delivered or dropped, or when sending failed and was postponed - then it is not successful.
+ */
+public class FlushHandle {
+    // sequence of the last event queued when the flush was requested
+    final long lastSequence;
+    private volatile boolean done;
+    private volatile boolean successful;
+    private final Array<Listener> listeners = new Array<>(1);
+
+    FlushHandle(long lastSequence) {
+        this.lastSequence = lastSequence;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return true if the flush is done and the events were delivered. Events rejected by the server as invalid
+     * still count as delivered
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * blocks the calling thread until the flush is done, or the thread is interrupted. Not available on GWT, where
+     * it returns without waiting
+     *
+     * @return true if the flush was successful within the timeout
+     */
+    public boolean await(long timeoutMillis) {
+        GwtIncompatibleStuff.awaitDone(this, timeoutMillis);
+        return successful;
+    }
+
+    /**
+     * @param listener called when the flush is done, on the thread completing it (normally a network thread), or
+     *                 right away if it is done already
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            if (!done) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        listener.flushDone(this);
+    }
+
+    void complete(boolean successful) {
+        synchronized (this) {
+            if (done)
+                return;
+            this.successful = successful;
+            done = true;
+        }
+        for (int i = 0; i < listeners.size; i++)
+            listeners.get(i).flushDone(this);
+        listeners.clear();
+        GwtIncompatibleStuff.signalDone(this);
+    }
+
+    public interface Listener {
+        void flushDone(FlushHandle handle);
+    }
+}
@@ -0,0 +1,34 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Decides when queued events are sent and how many of them go into one request.
+ * <p>
+ * {@link #isFlushDue(int, long, long, long)} is asked once a second on the thread the flush timer runs on, so it
+ * should be cheap and must not allocate. Flushes requested by {@link GameAnalytics#flushQueueImmediately()} and the
+ * backoff after failed requests are not subject to the policy.
+ *
+ * @see IntervalFlushPolicy
+ * @see AdaptiveFlushPolicy
+ */
+public interface FlushPolicy {
+
+    /**
+     * @param queuedEvents         number of events waiting, at least 1
+     * @param queuedBytes          estimated size of the waiting events' json
+     * @param oldestEventAgeMillis approximate time the oldest waiting event is queued
+     * @param millisSinceLastFlush time since the last flush was started
+     * @return true if a flush should be started now
+     */
+    boolean isFlushDue(int queuedEvents, long queuedBytes, long oldestEventAgeMillis, long millisSinceLastFlush);
+
+    /**
+     * @return maximum number of events sent in one request
+     */
+    int getMaxEventsPerRequest();
+
+    /**
+     * @return maximum size of a request's json before compression. A request contains at least one event, even if
+     * it is larger
+     */
+    int getMaxPayloadBytes();
+}
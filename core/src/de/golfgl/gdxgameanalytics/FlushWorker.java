@@ -0,0 +1,22 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Runs the expensive part of a flush - building the batch, compressing, signing and sending it - so that the thread
+ * submitting events only has to enqueue them.
+ * <p>
+ * The default worker is a single background thread on Java platforms and runs jobs directly on GWT, where no
+ * threads are available. Jobs must be run in the order they are handed over, and should be run one at a time: an
+ * instance builds its requests in a shared buffer, so its jobs wait for each other when run concurrently.
+ */
+public interface FlushWorker {
+
+    /**
+     * hands a job over to the worker. Returns immediately, unless the worker runs jobs on the calling thread
+     */
+    void execute(Runnable job);
+
+    /**
+     * stops the worker. Jobs already handed over are still run, new ones are rejected
+     */
+    void dispose();
+}
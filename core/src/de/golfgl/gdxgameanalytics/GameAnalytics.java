@@ -3,16 +3,17 @@ package de.golfgl.gdxgameanalytics;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Net;
 import com.badlogic.gdx.Preferences;
-import com.badlogic.gdx.utils.Json;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Array;
 import com.badlogic.gdx.utils.JsonReader;
 import com.badlogic.gdx.utils.JsonValue;
 import com.badlogic.gdx.utils.JsonWriter;
-import com.badlogic.gdx.utils.Queue;
 import com.badlogic.gdx.utils.TimeUtils;
 import com.badlogic.gdx.utils.Timer;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+
 
 /**
  * Gameanalytics.com client for libGDX
@@ -27,16 +28,47 @@ public class GameAnalytics {
     protected static final String URL_SANDBOX = "http://sandbox-api.gameanalytics.com/v2/";
     protected static final String TAG = "Gameanalytics";
     private final static String sdk_version = "rest api v2";
-    private static final int FLUSH_QUEUE_INTERVAL = 20;
     private static final String URL_GAMEANALYTICS = "https://api.gameanalytics.com/v2/";
     private static final int MAX_EVENTS_SENT = 100;
-    private static final int MAX_EVENTS_CACHED = 1000;
-
-    // possible TODO: Timer fires on foreground thread, building and compressing content should be done in background
+    // capacity of the normal and low priority lanes, the high priority lane has half of it. High priority events
+    // are never dropped, they spill over the capacity
+    private static final int DEFAULT_QUEUE_CAPACITY = 512;
+    private static final boolean[] NEVER_DROP_EVENTS = {true, false, false};
+    private static final int DEFAULT_MAX_REQUEST_BYTES = 1024 * 1024;
+    // below, the gzip header and trailer and the deflate block overhead eat most of the saving
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 512;
+    // no compression on GWT, requests are sent as they are
+    private static final boolean COMPRESSION_SUPPORTED = GwtIncompatibleStuff.isCompressionSupported();
+    // Deflater.DEFAULT_COMPRESSION, not available on GWT
+    private static final int DEFAULT_COMPRESSION_LEVEL = -1;
+    private static final int MAX_AGGREGATED_EVENT_IDS = 256;
+    private static final int MAX_ERROR_FINGERPRINTS = 64;
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 8000;
+    private static final float JOURNAL_SYNC_INTERVAL = 2;
+    private static final String DEFAULT_CRASH_SPOOL_FILE = "gameanalytics-crashes";
+    private static final int TRANSACTION_NUM_BLOCK = 64;
+    private static final String DEFAULT_PREFS_NAME = "gdx-gameanalytics";
+    // exponential backoff after failed flushes: 5, 10, 20, ... seconds, not more than 180
+    private static final int MIN_BACKOFF_SECONDS = 5;
+    private static final int MAX_BACKOFF_SECONDS = 180;
+
+    // fires on foreground thread, but only asks the flush policy if a flush is due. Building, compressing and
+    // sending the payload is done by the flush worker
     protected Timer.Task pingTask;
 
     protected String url = URL_GAMEANALYTICS;
-    protected boolean flushingQueue;
+    protected volatile boolean flushingQueue;
+    private FlushWorker flushWorker;
+    // the worker was created by this instance, not set by the game, so it is disposed with the instance
+    private boolean ownsFlushWorker;
+    private boolean disposed;
+    private Transport transport = new GdxNetTransport();
+    private final Runnable sendQueueJob = new Runnable() {
+        @Override
+        public void run() {
+            sendQueuedEvents();
+        }
+    };
     private String game_key = null;
     private String secret_key = null;
     //dimension information
@@ -54,15 +86,132 @@ public class GameAnalytics {
     private String custom2;
     private String custom3;
     //SDK status - this is false when not initialized or initializing failed
-    private boolean connectionInitializing = false;
-    private boolean connectionInitialized = false;
-    private int nextQueueFlushInSeconds = 0;
-    private final Queue<AnnotatedEvent> waitingQueue = new Queue<>();
-    private final Queue<AnnotatedEvent> sendingQueue = new Queue<>();
+    private volatile boolean connectionInitializing = false;
+    private volatile boolean connectionInitialized = false;
+    // false if only player sessions are reported
+    private volatile boolean ownSessionEnabled = true;
+    // done when the init request got an answer
+    private volatile FlushHandle initHandle;
+    // backoff after failed flushes
+    // no flush before this time after failed flushes, 0 if not backing off
+    private volatile long backOffUntilMillis = 0;
+    private volatile boolean flushRequested;
+    private long lastFlushMillis;
+    private FlushPolicy flushPolicy = new IntervalFlushPolicy();
+    private volatile int maxRequestBytes = DEFAULT_MAX_REQUEST_BYTES;
+    private volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private volatile int compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+    // submitting threads offer, the flush worker polls. Lock-free, so submitting never waits for a flush
+    private final PriorityEventQueue waitingQueue;
+    private final EventPriority[] categoryPriorities = {EventPriority.Low, EventPriority.High,
+            EventPriority.Normal, EventPriority.Normal, EventPriority.Normal};
+    // estimated json size of the waiting events, and when the oldest of them was queued (0 if none)
+    private final AtomicLongs waitingQueueBytes = new AtomicLongs(1);
+    private final AtomicLongs waitingSinceMillis = new AtomicLongs(1);
+    // batches taken from the waiting queue and not accepted yet, to be sent again in order of their sequence. Also
+    // guards the flushing state below, as batches are answered on the transport's threads
+    private final Array<EventBatch> retryBatches = new Array<>();
+    private final Array<EventBatch> freeBatches = new Array<>();
+    // flushes waiting for their events, in order of the last sequence they wait for
+    private final Array<FlushHandle> pendingFlushes = new Array<>();
+    private final QueueSequences queueSequences = new QueueSequences();
+    private int batchesInFlight;
+    private boolean flushScheduled;
+    private long nextBatchSequence;
+    private volatile int maxBatchesInFlight = 1;
+    // halved when the server answers 413 payload too large, doubled again with every accepted request
+    private volatile int batchEventLimit = Integer.MAX_VALUE;
+    // used by flush jobs while holding its lock, so a worker running jobs concurrently can't mix up requests
+    private final EventEncoder encoder = new EventEncoder(16 * 1024);
+    // shared annotations are the same for every event, so they are encoded once and spliced into each event. Setters
+    // bump the version to invalidate the cached fragment
+    private final AtomicLongs annotationsVersion = new AtomicLongs(1);
+    private final EventEncoder annotationsEncoder = new EventEncoder(512);
+    private int encodedAnnotationsVersion = -1;
+    private final ConcurrentPool<AnnotatedEvent> eventPool;
+    private final EventThrottle throttle = new EventThrottle(EventCategory.values().length);
+    private final AnalyticsMetrics metrics;
+    // null if design events are not aggregated
+    private volatile DesignEventAggregator designEventAggregator;
+    private volatile AggregatedValue aggregatedValue = AggregatedValue.Sum;
+    private int aggregationWindowSeconds;
+    private long aggregationWindowStart;
+    private final DesignEventAggregator.SummaryConsumer aggregatedEventConsumer =
+            new DesignEventAggregator.SummaryConsumer() {
+                @Override
+                public void consume(String eventId, float value) {
+                    AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_DESIGN);
+                    event.setEventId(eventId);
+                    event.setValue(value);
+                    addToWaitingQueue(event);
+                }
+            };
+    // null if errors are not deduplicated, see setErrorDeduplicationWindow()
+    private volatile ErrorDeduplicator errorDeduplicator;
+    private int errorDeduplicationWindowSeconds;
+    private long errorWindowStart = TimeUtils.millis();
+    private final ErrorDeduplicator.SummaryConsumer repeatedErrorConsumer = new ErrorDeduplicator.SummaryConsumer() {
+        @Override
+        public void consume(String severity, String message, int repeats) {
+            queueErrorEvent(null, severity, "(repeated " + repeats + " times) " + ErrorDeduplicator.compact(message));
+        }
+    };
     private int failedFlushAttempts;
-    private long timeStampDiscrepancy;
+    private volatile long timeStampDiscrepancy;
     private long sessionStartTimestamp;
+    // null if user and session are not tracked
+    private String prefsName;
+    // the game's preferences former versions wrote to, only read to take the values over
+    private Preferences formerPrefs;
+    // only used by GameAnalytics and written on the flush worker, opened on session start
     private Preferences prefs;
+    // null without preferences, or before the session was started
+    private volatile CounterStore transactionNums;
+    private final Runnable persistPrefsJob = new Runnable() {
+        @Override
+        public void run() {
+            persistPrefs();
+        }
+    };
+    private EventJournal journal;
+    private boolean journalReplayed;
+    private CrashSpool crashSpool;
+    private Timer.Task journalTask;
+    private final Runnable syncJournalJob = new Runnable() {
+        @Override
+        public void run() {
+            if (journal != null)
+                journal.sync();
+        }
+    };
+
+    public GameAnalytics() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param queueCapacity number of normal and of low priority events kept waiting before the oldest are dropped.
+     *                      Default is 512, raise it when reporting for thousands of player sessions
+     * @see #openPlayerSession(String, int)
+     */
+    public GameAnalytics(int queueCapacity) {
+        int[] capacities = {queueCapacity / 2, queueCapacity, queueCapacity};
+        waitingQueue = new PriorityEventQueue(capacities, NEVER_DROP_EVENTS, new PriorityEventQueue.DropListener() {
+            @Override
+            public void dropped(AnnotatedEvent event) {
+                waitingQueueBytes.addAndGet(0, -event.estimateSize());
+                releaseEvent(event);
+            }
+        });
+        eventPool = new ConcurrentPool<AnnotatedEvent>(capacities[0] + capacities[1] + capacities[2]
+                + MAX_EVENTS_SENT) {
+            @Override
+            protected AnnotatedEvent newObject() {
+                return new AnnotatedEvent();
+            }
+        };
+        metrics = new AnalyticsMetrics(waitingQueue, throttle);
+    }
 
     /**
      * initializes and starts the session. Make sure you have set all neccessary parameters before calling this
@@ -87,106 +236,439 @@ public class GameAnalytics {
         if (os_version == null)
             throw new IllegalStateException("You need to set a os version");
 
-        if (prefs == null)
+        if (prefsName == null)
             Gdx.app.log(TAG, "You did not set up preferences. Session and user tracking will not work without it");
+        else if (prefs == null)
+            prefs = openPrefs();
 
         loadOrInitUserStringAndSessionNum();
 
         session_id = GwtIncompatibleStuff.generateUuid();
 
+        replayJournal();
+        uploadCrashSpool();
+
         submitInitRequest();
         // start session is called if request is successful
     }
 
     private void loadOrInitUserStringAndSessionNum() {
-        if (prefs != null) {
+        Preferences prefs = this.prefs;
+        if (prefs == null) {
+            initUserId();
+            session_num++;
+            return;
+        }
+
+        synchronized (prefs) {
             user_id = prefs.getString("ga_userid", null);
             session_num = prefs.getInteger("ga_sessionnum", 0);
+
+            if (initUserId())
+                prefs.putString("ga_userid", user_id);
+
+            session_num++;
+            prefs.putInteger("ga_sessionnum", session_num);
         }
 
+        if (transactionNums == null)
+            transactionNums = new CounterStore(prefs, "ga_transactionnum", TRANSACTION_NUM_BLOCK);
+
+        // written in background, together with the first block of transaction numbers
+        try {
+            getFlushWorker().execute(persistPrefsJob);
+        } catch (Throwable t) {
+            Gdx.app.error(TAG, "Could not hand over saving preferences to worker", t);
+        }
+    }
+
+    /**
+     * @return the preferences of GameAnalytics, with the values saved by former versions in the game's preferences
+     * taken over
+     */
+    private Preferences openPrefs() {
+        Preferences prefs = Gdx.app.getPreferences(prefsName);
+        if (formerPrefs != null && !prefs.contains("ga_userid") && formerPrefs.contains("ga_userid")) {
+            prefs.putString("ga_userid", formerPrefs.getString("ga_userid"));
+            prefs.putInteger("ga_sessionnum", formerPrefs.getInteger("ga_sessionnum", 0));
+            prefs.putInteger("ga_transactionnum", formerPrefs.getInteger("ga_transactionnum", 0));
+            // flushed in background with the session number
+        }
+        return prefs;
+    }
+
+    /**
+     * @return true if a new user id was generated
+     */
+    private boolean initUserId() {
+        boolean generated = false;
         if (user_id == null || user_id.isEmpty()) {
             Gdx.app.log(TAG, "No user id found. Generating a new one.");
             user_id = GwtIncompatibleStuff.generateUuid();
+            generated = true;
+        }
+        annotationsChanged();
+        return generated;
+    }
 
-            if (prefs != null)
-                prefs.putString("ga_userid", user_id);
+    /**
+     * reserves transaction numbers if needed and flushes the preferences. Runs on the flush worker
+     */
+    private void persistPrefs() {
+        Preferences prefs = this.prefs;
+        if (prefs == null)
+            return;
+
+        synchronized (prefs) {
+            CounterStore transactionNums = this.transactionNums;
+            if (transactionNums != null && transactionNums.isReserveNeeded())
+                // flushes the preferences
+                transactionNums.reserve();
+            else
+                prefs.flush();
         }
+    }
 
-        session_num++;
+    /**
+     * queues events of former sessions that were not sent, and starts writing the journal on a schedule
+     */
+    private void replayJournal() {
+        if (journal == null)
+            return;
 
-        if (prefs != null) {
-            prefs.putInteger("ga_sessionnum", session_num);
-            prefs.flush();
+        if (!journalReplayed) {
+            journalReplayed = true;
+            int replayed;
+            replayed = journal.replay(new EventJournal.EventConsumer() {
+                @Override
+                public AnnotatedEvent obtain() {
+                    return eventPool.obtain();
+                }
+
+                @Override
+                public void consume(long seq, AnnotatedEvent event) {
+                    event.journalSeq = seq;
+                    addToWaitingQueue(event);
+                }
+            });
+            if (replayed > 0)
+                Gdx.app.log(TAG, "Replayed " + replayed + " events from journal");
+        }
+
+        if (journalTask == null)
+            journalTask = Timer.schedule(new Timer.Task() {
+                @Override
+                public void run() {
+                    syncJournal();
+                }
+            }, JOURNAL_SYNC_INTERVAL, JOURNAL_SYNC_INTERVAL);
+    }
+
+    /**
+     * queues crashes spooled by former runs with high priority, they are sent as soon as the session is initialized
+     */
+    private void uploadCrashSpool() {
+        final CrashSpool crashSpool = this.crashSpool;
+        if (crashSpool == null)
+            return;
+
+        int uploaded = crashSpool.upload(new CrashSpool.RecordConsumer() {
+            @Override
+            public void consume(String record) {
+                AnnotatedEvent event = eventPool.obtain();
+                try {
+                    event.readFields(new JsonReader().parse(record));
+                    event.spooled = true;
+                    addToWaitingQueue(event, EventPriority.High);
+                } catch (Throwable t) {
+                    Gdx.app.error(TAG, "Could not read spooled crash", t);
+                    eventPool.free(event);
+                    crashSpool.acknowledge();
+                }
+            }
+        });
+        if (uploaded > 0)
+            Gdx.app.log(TAG, "Uploading " + uploaded + " spooled crashes");
+    }
+
+    /**
+     * hands writing the journal to disk over to the flush worker, if there is something to write
+     */
+    private void syncJournal() {
+        if (journal == null || !journal.isSyncNeeded())
+            return;
+
+        try {
+            getFlushWorker().execute(syncJournalJob);
+        } catch (Throwable t) {
+            Gdx.app.error(TAG, "Could not hand over journal to worker", t);
         }
     }
 
+    /**
+     * @return next transaction number, from memory. The next block of numbers is reserved in background
+     */
     private int loadAndIncrementTransactionNum() {
-        if (prefs == null)
+        CounterStore transactionNums = this.transactionNums;
+        if (transactionNums == null)
             return 0;
 
-        int transactionNum = prefs.getInteger("ga_transactionnum", 0);
-        transactionNum++;
-        prefs.putInteger("ga_transactionnum", transactionNum);
-        prefs.flush();
+        int transactionNum = transactionNums.next();
+        if (transactionNums.isReserveNeeded()) {
+            try {
+                getFlushWorker().execute(persistPrefsJob);
+            } catch (Throwable t) {
+                Gdx.app.error(TAG, "Could not hand over saving preferences to worker", t);
+            }
+        }
         return transactionNum;
     }
 
     /**
-     * gets called every second by pingtask
+     * gets called every second by pingtask. Only decides if a flush is due and hands it over to the flush worker
      */
     protected void flushQueue() {
-        if (!connectionInitialized || flushingQueue)
+        if (!connectionInitialized)
             return;
 
-        // countdown to flush
-        if (nextQueueFlushInSeconds > 0) {
-            nextQueueFlushInSeconds -= 1;
+        DesignEventAggregator aggregator = designEventAggregator;
+        if (aggregator != null && TimeUtils.timeSinceMillis(aggregationWindowStart) >= aggregationWindowSeconds * 1000L)
+            drainAggregatedEvents(aggregator);
+
+        ErrorDeduplicator deduplicator = errorDeduplicator;
+        if (deduplicator != null
+                && TimeUtils.timeSinceMillis(errorWindowStart) >= errorDeduplicationWindowSeconds * 1000L)
+            drainRepeatedErrors(deduplicator);
+
+        // backoff after a failed flush
+        if (isBackingOff())
             return;
-        }
 
-        if (waitingQueue.size == 0 && sendingQueue.size == 0)
+        if (!isFlushDue() || !scheduleFlush())
             return;
 
-        flushingQueue = true;
-        nextQueueFlushInSeconds = FLUSH_QUEUE_INTERVAL;
+        flushRequested = false;
+        lastFlushMillis = TimeUtils.millis();
+    }
+
+    /**
+     * hands sending over to the flush worker, unless it already has a job or the maximum of batches is in flight
+     *
+     * @return true if a flush was scheduled
+     */
+    private boolean scheduleFlush() {
+        synchronized (retryBatches) {
+            if (flushScheduled || batchesInFlight >= maxBatchesInFlight)
+                return false;
+            flushScheduled = true;
+            flushingQueue = true;
+        }
+
+        try {
+            getFlushWorker().execute(sendQueueJob);
+            return true;
+        } catch (Throwable t) {
+            Gdx.app.error(TAG, "Could not hand over flush to worker", t);
+            synchronized (retryBatches) {
+                flushScheduled = false;
+                updateFlushingQueue();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * call with retryBatches locked
+     */
+    private void updateFlushingQueue() {
+        flushingQueue = flushScheduled || batchesInFlight > 0;
+    }
 
-        StringBuilder payload = new StringBuilder();
-        Json json = new Json();
-        json.setOutputType(JsonWriter.OutputType.json);
+    private boolean isFlushDue() {
+        // events left over by the last requests were due already
+        if (hasRetryBatches())
+            return true;
+
+        int queuedEvents = waitingQueue.size();
+        if (queuedEvents == 0)
+            return false;
+        if (flushRequested)
+            return true;
+
+        long now = TimeUtils.millis();
+        long waitingSince = waitingSinceMillis.get(0);
+        return flushPolicy.isFlushDue(queuedEvents, waitingQueueBytes.get(0),
+                waitingSince > 0 ? now - waitingSince : 0, now - lastFlushMillis);
+    }
 
-        synchronized (waitingQueue) {
-            while (sendingQueue.size < MAX_EVENTS_SENT && waitingQueue.size > 0)
-                sendingQueue.addLast(waitingQueue.removeFirst());
+    /**
+     * @return true if there is a backlog to send right away instead of waiting for the flush policy: batches to send
+     * again, or more waiting events than fit into one request
+     */
+    private boolean isDrainDue() {
+        if (isBackingOff())
+            return false;
+
+        FlushPolicy policy = flushPolicy;
+        return hasRetryBatches() || waitingQueue.size() >= Math.min(policy.getMaxEventsPerRequest(), batchEventLimit)
+                || waitingQueueBytes.get(0) >= policy.getMaxPayloadBytes()
+                || hasPendingFlushes() && !waitingQueue.isEmpty();
+    }
 
-            Gdx.app.debug(TAG, "Sending queue with " + sendingQueue.size + " events");
-            payload.append("[");
-            for (int i = 0; i < sendingQueue.size; i++) {
-                payload.append(json.toJson(sendingQueue.get(i)));
-                if (i != sendingQueue.size - 1)
-                    payload.append(",");
+    private boolean hasRetryBatches() {
+        synchronized (retryBatches) {
+            return retryBatches.size > 0;
+        }
+    }
+
+    private boolean hasPendingFlushes() {
+        synchronized (retryBatches) {
+            return pendingFlushes.size > 0;
+        }
+    }
+
+    /**
+     * completes the pending flushes whose events are all delivered or dropped
+     */
+    private void completeFlushes() {
+        long resolvedUpTo = queueSequences.getResolvedUpTo();
+        while (true) {
+            FlushHandle handle;
+            synchronized (retryBatches) {
+                if (pendingFlushes.size == 0 || pendingFlushes.first().lastSequence > resolvedUpTo)
+                    return;
+                handle = pendingFlushes.removeIndex(0);
             }
+            handle.complete(true);
         }
-        payload.append("]");
+    }
+
+    /**
+     * completes the pending flushes waiting for events from firstSequence on as not successful, when sending them
+     * failed and is postponed. Flushes whose events were all resolved are completed as successful
+     */
+    private void failFlushes(long firstSequence) {
+        completeFlushes();
+        Array<FlushHandle> failed = null;
+        synchronized (retryBatches) {
+            // sorted by their last sequence, so the failing ones are at the end
+            int index = pendingFlushes.size;
+            while (index > 0 && pendingFlushes.get(index - 1).lastSequence >= firstSequence)
+                index--;
+            if (index < pendingFlushes.size) {
+                failed = new Array<>(pendingFlushes.size - index);
+                for (int i = index; i < pendingFlushes.size; i++)
+                    failed.add(pendingFlushes.get(i));
+                pendingFlushes.truncate(index);
+            }
+        }
+        if (failed != null) {
+            for (int i = 0; i < failed.size; i++)
+                failed.get(i).complete(false);
+        }
+    }
+
+    /**
+     * @return the lowest queue sequence of the batch's events. Call before handing the batch over, its events are
+     * reset when they are released
+     */
+    private static long getFirstSequence(EventBatch batch) {
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < batch.events.size; i++)
+            first = Math.min(first, batch.events.get(i).queueSeq);
+        return first;
+    }
+
+    /**
+     * builds, compresses, signs and sends batches until the maximum of batches is in flight or there is no backlog
+     * left. Runs on the flush worker
+     */
+    private void sendQueuedEvents() {
+        boolean first = true;
+        while (true) {
+            EventBatch batch;
+            synchronized (retryBatches) {
+                if (batchesInFlight >= maxBatchesInFlight || isBackingOff() || !first && !isDrainDue()) {
+                    flushScheduled = false;
+                    updateFlushingQueue();
+                    return;
+                }
+                batch = retryBatches.size > 0 ? retryBatches.removeIndex(0) : null;
+            }
+            first = false;
+
+            Net.HttpRequest request = null;
+            int payloadBytes = 0;
+            try {
+                if (batch == null)
+                    batch = takeWaitingEvents();
+                if (batch != null) {
+                    synchronized (encoder) {
+                        request = buildEventsRequest(batch);
+                        payloadBytes = encoder.size();
+                    }
+                }
+            } catch (Throwable t) {
+                Gdx.app.error(TAG, "Could not build events payload", t);
+                synchronized (retryBatches) {
+                    if (batch != null)
+                        retryBatches.insert(0, batch);
+                    flushScheduled = false;
+                    updateFlushingQueue();
+                }
+                return;
+            }
+
+            if (request != null)
+                sendBatch(batch, request, payloadBytes);
+            else if (batch != null)
+                freeBatch(batch);
+            else {
+                // nothing to send
+                synchronized (retryBatches) {
+                    flushScheduled = false;
+                    updateFlushingQueue();
+                }
+                completeFlushes();
+                return;
+            }
+        }
+    }
+
+    private void sendBatch(final EventBatch batch, Net.HttpRequest request, int payloadBytes) {
+        synchronized (retryBatches) {
+            batchesInFlight++;
+        }
+        batch.attempts++;
+        metrics.requestSent(payloadBytes, request.getContentLength());
+        final long requestStartMillis = TimeUtils.millis();
 
-        final Net.HttpRequest request = createHttpRequest(this.url + game_key + "/events", payload.toString());
         //Execute and read response
-        Gdx.net.sendHttpRequest(request, new Net.HttpResponseListener() {
+        transport.sendHttpRequest(request, new Net.HttpResponseListener() {
             @Override
             public void handleHttpResponse(Net.HttpResponse httpResponse) {
-                synchronized (waitingQueue) {
-                    sendingQueue.clear();
-                }
-
+                int deliveredEvents = batch.events.size;
                 int statusCode = httpResponse.getStatus().getStatusCode();
                 String resultAsString = httpResponse.getResultAsString();
 
-                if (statusCode == 200)
+                if (statusCode == 200) {
                     Gdx.app.debug(TAG, statusCode + " " + resultAsString);
-                else
+                    synchronized (retryBatches) {
+                        failedFlushAttempts = 0;
+                        if (batchEventLimit < Integer.MAX_VALUE)
+                            batchEventLimit = batchEventLimit > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE
+                                    : batchEventLimit * 2;
+                    }
+                    releaseEvents(batch, 0, deliveredEvents);
+                    freeBatch(batch);
+                } else {
                     Gdx.app.error(TAG, statusCode + " " + resultAsString);
+                    handleErrorResponse(statusCode, resultAsString, httpResponse.getHeader("Retry-After"), batch);
+                }
 
-                failedFlushAttempts = 0;
-                flushingQueue = false;
+                metrics.responseReceived(statusCode, statusCode == 200 ? deliveredEvents : 0,
+                        TimeUtils.timeSinceMillis(requestStartMillis));
+                batchCompleted();
             }
 
             @Override
@@ -201,65 +683,515 @@ public class GameAnalytics {
 
             private void failed() {
                 Gdx.app.error(TAG, "Could not send events in queue - probably offline");
-                // lengthen the time to the next waitingQueue flush after a fail, but not more than 180 seconds
-                failedFlushAttempts = Math.min(failedFlushAttempts + 1, 180 / FLUSH_QUEUE_INTERVAL);
-                nextQueueFlushInSeconds = FLUSH_QUEUE_INTERVAL * (failedFlushAttempts + 1);
-                Gdx.app.debug(TAG, "Next flush attempt in " + nextQueueFlushInSeconds + " seconds");
-                flushingQueue = false;
+                long firstSequence = getFirstSequence(batch);
+                synchronized (retryBatches) {
+                    backOff(0);
+                    addRetryBatch(batch);
+                }
+                metrics.requestFailed(TimeUtils.timeSinceMillis(requestStartMillis));
+                failFlushes(firstSequence);
+                batchCompleted();
             }
         });
     }
 
-    private Net.HttpRequest createHttpRequest(String url, String payload) {
+    /**
+     * decides what happens to the events of a batch the server did not accept. Overloaded servers and throttling
+     * are waited out with the events kept, a payload too large is split, and of invalid requests only the events
+     * the server names are dropped. Other errors won't go away by sending again, so the events are dropped
+     */
+    private void handleErrorResponse(int statusCode, String result, String retryAfter, EventBatch batch) {
+        int eventCount = batch.events.size;
+        if (isRetriable(statusCode)) {
+            long firstSequence = getFirstSequence(batch);
+            synchronized (retryBatches) {
+                backOff(parseRetryAfter(retryAfter));
+                addRetryBatch(batch);
+            }
+            failFlushes(firstSequence);
+            return;
+        }
+
+        if (statusCode == 413 && eventCount > 1) {
+            synchronized (retryBatches) {
+                failedFlushAttempts = 0;
+                batchEventLimit = eventCount / 2;
+                EventBatch secondHalf = obtainBatch();
+                batch.splitInto(secondHalf, eventCount / 2);
+                addRetryBatch(batch);
+                addRetryBatch(secondHalf);
+            }
+            Gdx.app.debug(TAG, "Payload too large, sending at most " + batchEventLimit + " events per request");
+            return;
+        }
+
+        synchronized (retryBatches) {
+            failedFlushAttempts = 0;
+        }
+        if (statusCode == 413) {
+            Gdx.app.error(TAG, "Dropping event rejected as too large: " + batch.events.first().category);
+            dropEvents(batch, 0, 1);
+        } else if (statusCode == 400 && dropRejectedEvents(result, batch) > 0) {
+            // the remaining events are valid and sent again
+        } else {
+            Gdx.app.error(TAG, "Dropping " + eventCount + " events rejected by the server");
+            dropEvents(batch, 0, eventCount);
+        }
+
+        if (batch.events.size > 0) {
+            synchronized (retryBatches) {
+                addRetryBatch(batch);
+            }
+        } else
+            freeBatch(batch);
+    }
+
+    private static boolean isRetriable(int statusCode) {
+        return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * @return seconds the server asks to wait, 0 if it didn't say or the header is a date
+     */
+    private static int parseRetryAfter(String retryAfter) {
+        if (retryAfter == null)
+            return 0;
+
+        try {
+            return Math.min(Integer.parseInt(retryAfter.trim()), MAX_BACKOFF_SECONDS);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * delays the next flush exponentially with every failed attempt. The delay is randomized between half and the
+     * full backoff, so clients failing at the same time don't retry at the same time. Call with retryBatches locked
+     */
+    private void backOff(int minSeconds) {
+        failedFlushAttempts = Math.min(failedFlushAttempts + 1, 16);
+        int backoff = (int) Math.min(MAX_BACKOFF_SECONDS, (long) MIN_BACKOFF_SECONDS << (failedFlushAttempts - 1));
+        int seconds = Math.max(minSeconds, backoff / 2 + MathUtils.random(backoff - backoff / 2));
+        backOffUntilMillis = TimeUtils.millis() + seconds * 1000L;
+        Gdx.app.debug(TAG, "Next flush attempt in " + seconds + " seconds");
+    }
+
+    private boolean isBackingOff() {
+        long backOffUntil = backOffUntilMillis;
+        return backOffUntil > 0 && TimeUtils.millis() < backOffUntil;
+    }
+
+    /**
+     * drops the events a 400 response names as invalid. GameAnalytics answers with a list of errors, each with the
+     * rejected event and the reasons
+     *
+     * @return number of events dropped, 0 if the response could not be matched to the sent events
+     */
+    private int dropRejectedEvents(String result, EventBatch batch) {
+        JsonValue errors;
+        try {
+            errors = new JsonReader().parse(result);
+        } catch (Throwable t) {
+            return 0;
+        }
+        if (errors == null || !errors.isArray())
+            return 0;
+
+        int dropped = 0;
+        for (JsonValue error = errors.child; error != null; error = error.next) {
+            JsonValue rejected = error.get("event");
+            if (rejected == null)
+                continue;
+
+            for (int i = 0; i < batch.events.size; i++) {
+                AnnotatedEvent event = batch.events.get(i);
+                if (event.matches(rejected)) {
+                    JsonValue reasons = error.get("errors");
+                    Gdx.app.error(TAG, "Dropping invalid " + event.category + " event"
+                            + (reasons != null ? ": " + reasons.toJson(JsonWriter.OutputType.json) : ""));
+                    dropEvents(batch, i, i + 1);
+                    dropped++;
+                    break;
+                }
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * call with retryBatches locked. Keeps the batches in order of their sequence, so events are sent again in the
+     * order they were taken from the waiting queue
+     */
+    private void addRetryBatch(EventBatch batch) {
+        int index = retryBatches.size;
+        while (index > 0 && retryBatches.get(index - 1).sequence > batch.sequence)
+            index--;
+        retryBatches.insert(index, batch);
+    }
+
+    private EventBatch obtainBatch() {
+        synchronized (retryBatches) {
+            return freeBatches.size > 0 ? freeBatches.pop() : new EventBatch(MAX_EVENTS_SENT);
+        }
+    }
+
+    private void freeBatch(EventBatch batch) {
+        batch.reset();
+        synchronized (retryBatches) {
+            freeBatches.add(batch);
+        }
+    }
+
+    private void batchCompleted() {
+        synchronized (retryBatches) {
+            batchesInFlight--;
+            updateFlushingQueue();
+            int pendingRetryEvents = 0;
+            for (int i = 0; i < retryBatches.size; i++)
+                pendingRetryEvents += retryBatches.get(i).events.size;
+            metrics.setPendingRetryEvents(pendingRetryEvents);
+            metrics.setFailedFlushAttempts(failedFlushAttempts);
+            metrics.setBatchesInFlight(batchesInFlight);
+        }
+        metrics.notifyListeners();
+        completeFlushes();
+
+        if (connectionInitialized && isDrainDue())
+            scheduleFlush();
+    }
+
+    /**
+     * takes as many events from the waiting queue as the flush policy allows for one request into a new batch
+     *
+     * @return the batch, or null if no events are waiting
+     */
+    private EventBatch takeWaitingEvents() {
+        int maxEvents = Math.min(flushPolicy.getMaxEventsPerRequest(), batchEventLimit);
+        EventBatch batch = null;
+        while (batch == null || batch.events.size < maxEvents) {
+            AnnotatedEvent event = waitingQueue.poll();
+            if (event == null)
+                break;
+            waitingQueueBytes.addAndGet(0, -event.estimateSize());
+            if (batch == null) {
+                batch = obtainBatch();
+                batch.sequence = nextBatchSequence++;
+            }
+            batch.events.add(event);
+        }
+        waitingSinceMillis.set(0, waitingQueue.isEmpty() ? 0 : TimeUtils.millis());
+        return batch;
+    }
+
+    /**
+     * builds the request for as many of the batch's events as the flush policy and the maximum request size allow.
+     * Events not fitting are split into a new batch that is sent next
+     *
+     * @return the request, or null if the batch's events were all dropped as too large
+     */
+    private Net.HttpRequest buildEventsRequest(EventBatch batch) {
+        int version = (int) annotationsVersion.get(0);
+        if (version != encodedAnnotationsVersion) {
+            annotationsEncoder.reset();
+            writeSharedAnnotations(annotationsEncoder);
+            encodedAnnotationsVersion = version;
+        }
+
+        FlushPolicy policy = flushPolicy;
+        int eventCount = encodeEvents(batch, policy.getMaxPayloadBytes());
+        while (eventCount > 0) {
+            Net.HttpRequest request = createHttpRequest(this.url + game_key + "/events");
+            if (request.getContentLength() <= maxRequestBytes) {
+                if (eventCount < batch.events.size) {
+                    EventBatch rest = obtainBatch();
+                    batch.splitInto(rest, eventCount);
+                    synchronized (retryBatches) {
+                        addRetryBatch(rest);
+                    }
+                }
+                Gdx.app.debug(TAG, "Sending queue with " + eventCount + " events");
+                return request;
+            }
+
+            if (eventCount > 1) {
+                // scale down by the excess, events of a batch mostly compress alike
+                int fittingCount = (int) (eventCount * (long) maxRequestBytes / request.getContentLength());
+                eventCount = encodeEvents(batch, Math.max(1, Math.min(eventCount - 1, fittingCount)),
+                        Integer.MAX_VALUE);
+            } else {
+                // would never be accepted
+                Gdx.app.error(TAG, "Dropping event exceeding maximum request size: "
+                        + batch.events.first().category);
+                dropEvents(batch, 0, 1);
+                eventCount = encodeEvents(batch, policy.getMaxPayloadBytes());
+            }
+        }
+        return null;
+    }
+
+    private int encodeEvents(EventBatch batch, int maxBytes) {
+        return encodeEvents(batch, batch.events.size, maxBytes);
+    }
+
+    /**
+     * encodes the first events of the batch into {@link #encoder}
+     *
+     * @return number of events encoded: maxEvents, or less if maxBytes was reached. At least one if the batch is
+     * not empty
+     */
+    private int encodeEvents(EventBatch batch, int maxEvents, int maxBytes) {
+        encoder.reset();
+        encoder.beginArray();
+        int eventCount = 0;
+        while (eventCount < maxEvents && eventCount < batch.events.size) {
+            AnnotatedEvent event = batch.events.get(eventCount);
+            if (eventCount > 0 && encoder.size() + event.estimateSize() > maxBytes)
+                break;
+
+            encoder.beginObject();
+            if (event.player != null) {
+                byte[] playerAnnotations = event.player.getEncodedAnnotations(encodedAnnotationsVersion);
+                encoder.rawFields(playerAnnotations, 0, playerAnnotations.length);
+            } else
+                encoder.rawFields(annotationsEncoder.getBytes(), 0, annotationsEncoder.size());
+            event.writeFields(encoder);
+            encoder.endObject();
+            eventCount++;
+        }
+        encoder.endArray();
+        return eventCount;
+    }
+
+    /**
+     * removes events from the batch, as they were rejected
+     */
+    private void dropEvents(EventBatch batch, int start, int end) {
+        metrics.eventsRejected(end - start);
+        releaseEvents(batch, start, end);
+        batch.events.removeRange(start, end - 1);
+    }
+
+    /**
+     * acknowledges the batch's events from start to end (exclusive) and returns them to the pool, but does not
+     * remove them from the batch
+     */
+    private void releaseEvents(EventBatch batch, int start, int end) {
+        for (int i = start; i < end; i++)
+            releaseEvent(batch.events.get(i));
+    }
+
+    /**
+     * acknowledges an event in the journal and returns it to the pool, when it is delivered or dropped
+     */
+    private void releaseEvent(AnnotatedEvent event) {
+        if (journal != null)
+            journal.acknowledge(event.journalSeq);
+        CrashSpool crashSpool = this.crashSpool;
+        if (event.spooled && crashSpool != null)
+            crashSpool.acknowledge();
+        if (event.queueSeq != 0)
+            queueSequences.resolved(event.queueSeq);
+        eventPool.free(event);
+    }
+
+    /**
+     * call this after changing a value written by {@link #writeSharedAnnotations(EventEncoder)}
+     */
+    private void annotationsChanged() {
+        annotationsVersion.incrementAndGet(0);
+    }
+
+    private void writeSharedAnnotations(EventEncoder encoder) {
+        writeAnnotations(encoder, user_id, custom1, custom2, custom3);
+    }
+
+    /**
+     * writes the annotations shared by all players and the ones given. Used for player sessions, see
+     * {@link PlayerSession#getEncodedAnnotations(int)}
+     */
+    void writeAnnotations(EventEncoder encoder, String user_id, String custom1, String custom2, String custom3) {
+        encoder.field("platform", platform);
+        encoder.field("os_version", platform + " " + os_version);
+        encoder.field("sdk_version", sdk_version);
+        encoder.field("device", device);
+        encoder.field("manufacturer", manufacturer);
+        if (build != null)
+            encoder.field("build", build);
+        encoder.field("user_id", user_id);
+        encoder.field("v", 2);
+        if (custom1 != null)
+            encoder.field("custom_01", custom1);
+        if (custom2 != null)
+            encoder.field("custom_02", custom2);
+        if (custom3 != null)
+            encoder.field("custom_03", custom3);
+    }
+
+    /**
+     * @return request with the content of {@link #encoder}, compressed if possible and signed
+     */
+    private Net.HttpRequest createHttpRequest(String url) {
         final Net.HttpRequest request = new Net.HttpRequest("POST");
         request.setUrl(url);
-        String hash = GwtIncompatibleStuff.setHttpRequestContent(request, payload, secret_key);
+        int threshold = COMPRESSION_SUPPORTED ? compressionThreshold : Integer.MAX_VALUE;
+        String hash = GwtIncompatibleStuff.setHttpRequestContent(request, encoder.getBytes(), encoder.size(),
+                secret_key, threshold, compressionLevel);
         request.setHeader("Accept", "application/json");
         request.setHeader("Content-type", "application/json");
         request.setHeader("Authorization", hash);
         return request;
     }
 
+    /**
+     * @return a pooled event for the current session. Does not allocate when the pool has free events
+     */
+    AnnotatedEvent obtainEvent(String category) {
+        return obtainEvent(category, null);
+    }
+
+    /**
+     * @param player session of a player the event is reported for, or null for the own session
+     */
+    private AnnotatedEvent obtainEvent(String category, PlayerSession player) {
+        AnnotatedEvent event = eventPool.obtain();
+        if (player == null)
+            return event.set(category, getCurrentServerTime() / 1000L, session_id, session_num);
+
+        event.set(category, getCurrentServerTime() / 1000L, player.sessionId, player.sessionNum);
+        event.player = player;
+        return event;
+    }
+
+    /**
+     * thread-safe and lock-free. When the event's priority lane is full, its oldest event is dropped. High priority
+     * events are never dropped
+     */
     private void addToWaitingQueue(AnnotatedEvent event) {
-        while (waitingQueue.size > MAX_EVENTS_CACHED)
-            waitingQueue.removeFirst();
+        addToWaitingQueue(event, getPriority(event));
+    }
 
-        waitingQueue.addLast(event);
+    private void addToWaitingQueue(AnnotatedEvent event, EventPriority priority) {
+        // spooled crashes are kept on disk by the spool until they are delivered. Player sessions live on a server,
+        // their annotations are not part of the journal
+        if (journal != null && event.journalSeq == 0 && !event.spooled && event.player == null)
+            event.journalSeq = journal.append(event);
+
+        if (event.queueSeq == 0)
+            event.queueSeq = queueSequences.next();
+        waitingQueueBytes.addAndGet(0, event.estimateSize());
+        waitingSinceMillis.compareAndSet(0, 0, TimeUtils.millis());
+        metrics.eventQueued();
+        waitingQueue.offer(event, priority.ordinal());
+    }
+
+    private EventPriority getPriority(AnnotatedEvent event) {
+        String category = event.category;
+        if (AnnotatedEvent.CATEGORY_USER.equals(category) || AnnotatedEvent.CATEGORY_SESSION_END.equals(category))
+            return EventPriority.High;
+        else if (AnnotatedEvent.CATEGORY_DESIGN.equals(category))
+            return categoryPriorities[EventCategory.Design.ordinal()];
+        else if (AnnotatedEvent.CATEGORY_BUSINESS.equals(category))
+            return categoryPriorities[EventCategory.Business.ordinal()];
+        else if (AnnotatedEvent.CATEGORY_PROGRESSION.equals(category))
+            return categoryPriorities[EventCategory.Progression.ordinal()];
+        else if (AnnotatedEvent.CATEGORY_RESOURCE.equals(category))
+            return categoryPriorities[EventCategory.Resource.ordinal()];
+        else if ("critical".equals(event.severity))
+            return EventPriority.High;
+        else if ("debug".equals(event.severity) || "info".equals(event.severity))
+            return EventPriority.Low;
+        else
+            return categoryPriorities[EventCategory.Error.ordinal()];
+    }
+
+    /**
+     * @return json representation for the crash spool, containing everything but the shared annotations
+     */
+    private String toSpoolRecord(AnnotatedEvent event) {
+        // called by submitting threads, so the worker's encoder can't be used
+        EventEncoder recordEncoder = new EventEncoder(256);
+        recordEncoder.beginObject();
+        event.writeFields(recordEncoder);
+        recordEncoder.endObject();
+        return GwtIncompatibleStuff.decodeUtf8(recordEncoder.getBytes(), recordEncoder.size());
     }
 
     private void submitStartSessionRequest() {
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "user");
-        synchronized (waitingQueue) {
-            addToWaitingQueue(event);
-        }
+        addToWaitingQueue(obtainEvent(AnnotatedEvent.CATEGORY_USER));
     }
 
     public void submitDesignEvent(String event_id) {
-        if (!isInitialized())
+        submitDesignEvent(null, event_id);
+    }
+
+    void submitDesignEvent(PlayerSession player, String event_id) {
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Design.ordinal()))
             return;
 
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "design");
-        event.put("event_id", event_id);
-        synchronized (waitingQueue) {
-            Gdx.app.debug(TAG, "Queuing design event");
-            addToWaitingQueue(event);
-        }
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_DESIGN, player);
+        event.setEventId(event_id);
+        Gdx.app.debug(TAG, "Queuing design event");
+        addToWaitingQueue(event);
+    }
+
+    /**
+     * @param eventId obtained by {@link #designEvent(String)}
+     */
+    public void submitDesignEvent(EventId eventId) {
+        submitDesignEvent(null, eventId);
     }
 
+    void submitDesignEvent(PlayerSession player, EventId eventId) {
+        checkCategory(eventId, AnnotatedEvent.CATEGORY_DESIGN);
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Design.ordinal()))
+            return;
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_DESIGN, player);
+        event.setEventId(eventId);
+        Gdx.app.debug(TAG, "Queuing design event");
+        addToWaitingQueue(event);
+    }
+
+    /**
+     * @param eventId obtained by {@link #designEvent(String)}
+     * @see #setDesignEventAggregation(int, AggregatedValue) for aggregating chatty events
+     */
+    public void submitDesignEvent(EventId eventId, float value) {
+        checkCategory(eventId, AnnotatedEvent.CATEGORY_DESIGN);
+        submitDesignEvent(null, eventId, eventId.eventId, value);
+    }
+
+    /**
+     * @see #setDesignEventAggregation(int, AggregatedValue) for aggregating chatty events
+     */
     public void submitDesignEvent(String event_id, float value) {
-        if (!isInitialized())
+        submitDesignEvent(null, null, event_id, value);
+    }
+
+    /**
+     * @param eventId precompiled id, or null to use event_id
+     */
+    void submitDesignEvent(PlayerSession player, EventId eventId, String event_id, float value) {
+        if (!isInitialized(player))
             return;
 
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "design");
-        event.put("event_id", event_id);
-        event.putFloat("value", value);
-        synchronized (waitingQueue) {
-            Gdx.app.debug(TAG, "Queuing design event");
-            addToWaitingQueue(event);
-        }
+        // aggregated events are cheap, and shedding them would distort the summary. Summaries are sent with the
+        // own session, so events of player sessions are not aggregated
+        DesignEventAggregator aggregator = designEventAggregator;
+        if (player == null && aggregator != null && aggregator.add(event_id, value))
+            return;
+
+        if (!throttle.accept(EventCategory.Design.ordinal()))
+            return;
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_DESIGN, player);
+        if (eventId != null)
+            event.setEventId(eventId);
+        else
+            event.setEventId(event_id);
+        event.setValue(value);
+        Gdx.app.debug(TAG, "Queuing design event");
+        addToWaitingQueue(event);
     }
 
     /**
@@ -271,56 +1203,92 @@ public class GameAnalytics {
      * @param currency see http://openexchangerates.org/currencies.json
      */
     public void submitBusinessEvent(String itemType, String itemId, int amount, String currency) {
-        if (!isInitialized())
+        submitBusinessEvent(null, itemType, itemId, amount, currency);
+    }
+
+    void submitBusinessEvent(PlayerSession player, String itemType, String itemId, int amount, String currency) {
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Business.ordinal()))
             return;
 
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "business");
-        event.put("event_id", itemType + ":" + itemId);
-        event.putInt("amount", amount);
-        event.put("currency", currency);
-        event.putInt("transaction_num", loadAndIncrementTransactionNum());
-        synchronized (waitingQueue) {
-            Gdx.app.debug(TAG, "Queuing business event");
-            addToWaitingQueue(event);
-        }
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_BUSINESS, player);
+        event.addEventIdPart(itemType);
+        event.addEventIdPart(itemId);
+        event.setAmount(amount);
+        event.currency = currency;
+        event.setTransactionNum(player != null ? player.nextTransactionNum() : loadAndIncrementTransactionNum());
+        Gdx.app.debug(TAG, "Queuing business event");
+        addToWaitingQueue(event);
     }
 
     public void submitProgressionEvent(ProgressionStatus status, String progression01, String progression02,
                                        String progression03) {
-        submitProgressionEvent(status, progression01, progression02, progression03, 0, 0);
+        submitProgressionEvent(null, status, progression01, progression02, progression03, 0, 0);
     }
 
     public void submitProgressionEvent(ProgressionStatus status, String progression01, String progression02,
                                        String progression03, int score, int attemptNum) {
-        if (!isInitialized())
+        submitProgressionEvent(null, status, progression01, progression02, progression03, score, attemptNum);
+    }
+
+    void submitProgressionEvent(PlayerSession player, ProgressionStatus status, String progression01,
+                                String progression02, String progression03, int score, int attemptNum) {
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Progression.ordinal()))
             return;
 
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "progression");
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_PROGRESSION, player);
 
-        String event_id = getStatusString(status) + ":" + progression01;
+        // event id is joined from its parts when serialized
+        event.addEventIdPart(getStatusString(status));
+        event.addEventIdPart(progression01);
         if (progression02.length() > 0) {
-            event_id += ":" + progression02;
+            event.addEventIdPart(progression02);
         }
         if (progression03.length() > 0) {
-            event_id += ":" + progression03;
+            event.addEventIdPart(progression03);
         }
-        event.put("event_id", event_id);
 
+        setProgressionResult(event, status, score, attemptNum);
+        Gdx.app.debug(TAG, "Queuing progression event");
+        addToWaitingQueue(event);
+    }
+
+    /**
+     * @param eventId obtained by {@link #progressionEvent(ProgressionStatus, String...)}
+     */
+    public void submitProgressionEvent(EventId eventId) {
+        submitProgressionEvent(null, eventId, 0, 0);
+    }
+
+    /**
+     * @param eventId obtained by {@link #progressionEvent(ProgressionStatus, String...)}
+     */
+    public void submitProgressionEvent(EventId eventId, int score, int attemptNum) {
+        submitProgressionEvent(null, eventId, score, attemptNum);
+    }
+
+    void submitProgressionEvent(PlayerSession player, EventId eventId, int score, int attemptNum) {
+        checkCategory(eventId, AnnotatedEvent.CATEGORY_PROGRESSION);
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Progression.ordinal()))
+            return;
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_PROGRESSION, player);
+        event.setEventId(eventId);
+        setProgressionResult(event, eventId.progressionStatus, score, attemptNum);
+        Gdx.app.debug(TAG, "Queuing progression event");
+        addToWaitingQueue(event);
+    }
+
+    private static void setProgressionResult(AnnotatedEvent event, ProgressionStatus status, int score,
+                                             int attemptNum) {
         if (status == ProgressionStatus.Complete || status == ProgressionStatus.Fail) {
             if (attemptNum > 0)
-                event.putInt("attempt_num", attemptNum);
+                event.setAttemptNum(attemptNum);
             if (score > 0)
-                event.putInt("score", score);
-        }
-        synchronized (waitingQueue) {
-            Gdx.app.debug(TAG, "Queuing progression event");
-            addToWaitingQueue(event);
+                event.setScore(score);
         }
     }
 
-    private String getStatusString(ProgressionStatus status) {
+    private static String getStatusString(ProgressionStatus status) {
         switch (status) {
             case Start:
                 return "Start";
@@ -331,24 +1299,96 @@ public class GameAnalytics {
         }
     }
 
-    public void submitResourceEvent(ResourceFlowType flowType, String virtualCurrency, String itemType,
-                                     String itemId, float amount) {
-        if (!isInitialized())
-            return;
+    public void submitResourceEvent(ResourceFlowType flowType, String virtualCurrency, String itemType,
+                                    String itemId, float amount) {
+        submitResourceEvent(null, flowType, virtualCurrency, itemType, itemId, amount);
+    }
+
+    void submitResourceEvent(PlayerSession player, ResourceFlowType flowType, String virtualCurrency,
+                             String itemType, String itemId, float amount) {
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Resource.ordinal()))
+            return;
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_RESOURCE, player);
+
+        event.addEventIdPart(getFlowTypeString(flowType));
+        event.addEventIdPart(virtualCurrency);
+        event.addEventIdPart(itemType);
+        event.addEventIdPart(itemId);
+        event.setFloatAmount(amount);
+        Gdx.app.debug(TAG, "Queuing resource event");
+        addToWaitingQueue(event);
+    }
+
+    /**
+     * @param eventId obtained by {@link #resourceEvent(ResourceFlowType, String, String, String)}
+     */
+    public void submitResourceEvent(EventId eventId, float amount) {
+        submitResourceEvent(null, eventId, amount);
+    }
+
+    void submitResourceEvent(PlayerSession player, EventId eventId, float amount) {
+        checkCategory(eventId, AnnotatedEvent.CATEGORY_RESOURCE);
+        if (!isInitialized(player) || !throttle.accept(EventCategory.Resource.ordinal()))
+            return;
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_RESOURCE, player);
+        event.setEventId(eventId);
+        event.setFloatAmount(amount);
+        Gdx.app.debug(TAG, "Queuing resource event");
+        addToWaitingQueue(event);
+    }
+
+    /**
+     * @param eventId design event id of one to five parts separated by a colon, e.g. "kill:robot:blue"
+     * @return precompiled id for {@link #submitDesignEvent(EventId)}. Keep it and submit it as often as needed
+     * @throws IllegalArgumentException if the id is not valid for GameAnalytics
+     */
+    public static EventId designEvent(String eventId) {
+        EventId.validate(eventId, 1, AnnotatedEvent.MAX_EVENT_ID_PARTS);
+        return new EventId(AnnotatedEvent.CATEGORY_DESIGN, eventId, null);
+    }
+
+    /**
+     * @param progression one to three progression levels, e.g. "World1", "Level2". Empty levels after the first
+     *                    are skipped, like {@link #submitProgressionEvent(ProgressionStatus, String, String, String)}
+     *                    does
+     * @return precompiled id for {@link #submitProgressionEvent(EventId)}
+     * @throws IllegalArgumentException if the id is not valid for GameAnalytics
+     */
+    public static EventId progressionEvent(ProgressionStatus status, String... progression) {
+        if (progression.length < 1 || progression.length > 3)
+            throw new IllegalArgumentException("One to three progression levels needed");
+
+        StringBuilder eventId = new StringBuilder(getStatusString(status));
+        for (int i = 0; i < progression.length; i++) {
+            if (i > 0 && progression[i].isEmpty())
+                continue;
+            EventId.validate(progression[i], 1, 1);
+            eventId.append(':').append(progression[i]);
+        }
+        return new EventId(AnnotatedEvent.CATEGORY_PROGRESSION, eventId.toString(), status);
+    }
 
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "resource");
+    /**
+     * @return precompiled id for {@link #submitResourceEvent(EventId, float)}
+     * @throws IllegalArgumentException if the id is not valid for GameAnalytics
+     */
+    public static EventId resourceEvent(ResourceFlowType flowType, String virtualCurrency, String itemType,
+                                        String itemId) {
+        EventId.validate(virtualCurrency, 1, 1);
+        EventId.validate(itemType, 1, 1);
+        EventId.validate(itemId, 1, 1);
+        return new EventId(AnnotatedEvent.CATEGORY_RESOURCE,
+                getFlowTypeString(flowType) + ":" + virtualCurrency + ":" + itemType + ":" + itemId, null);
+    }
 
-        String event_id = getFlowTypeString(flowType) + ":" + virtualCurrency + ":" + itemType + ":" + itemId;
-        event.put("event_id", event_id);
-        event.putFloat("amount", amount);
-        synchronized (waitingQueue) {
-            Gdx.app.debug(TAG, "Queuing resource event");
-            addToWaitingQueue(event);
-        }
+    static void checkCategory(EventId eventId, String category) {
+        if (!category.equals(eventId.category))
+            throw new IllegalArgumentException("Event id " + eventId + " is not a " + category + " event id");
     }
 
-    private String getFlowTypeString(ResourceFlowType flowType) {
+    private static String getFlowTypeString(ResourceFlowType flowType) {
         switch (flowType) {
             case Sink:
                 return "Sink";
@@ -358,60 +1398,104 @@ public class GameAnalytics {
     }
 
     /**
-     * submits an error event
+     * submits an error event. Stack traces are compacted, and repeats of an error are only counted and sent as one
+     * summary, see {@link #setErrorDeduplicationWindow(int)}
      *
      * @param severity
      * @param message
      */
     public void submitErrorEvent(ErrorType severity, String message) {
-        if (!isInitialized())
-            return;
+        submitErrorEvent(null, severity, message);
+    }
 
-        if (message.length() > 8000)
-            message = message.substring(0, 8000);
+    /**
+     * errors of player sessions are not deduplicated, the summaries are sent with the own session
+     */
+    void submitErrorEvent(PlayerSession player, ErrorType severity, String message) {
+        if (!isInitialized(player))
+            return;
 
-        AnnotatedEvent event = new AnnotatedEvent();
-        event.put("category", "error");
-        event.put("severity", getSeverityString(severity));
-        event.put("message", message);
-        synchronized (waitingQueue) {
-            Gdx.app.debug(TAG, "Queuing error event (" + message + ")");
-            addToWaitingQueue(event);
+        String severityString = getSeverityString(severity);
+        ErrorDeduplicator deduplicator = errorDeduplicator;
+        if (player == null && deduplicator != null && !deduplicator.register(
+                ErrorDeduplicator.fingerprint(severityString, message), severityString, message)) {
+            Gdx.app.debug(TAG, "Counted repeated error event");
+            return;
         }
+
+        if (!throttle.accept(EventCategory.Error.ordinal()))
+            return;
+
+        queueErrorEvent(player, severityString, ErrorDeduplicator.compact(message));
+    }
+
+    private void queueErrorEvent(PlayerSession player, String severity, String message) {
+        if (message.length() > MAX_ERROR_MESSAGE_LENGTH)
+            message = message.substring(0, MAX_ERROR_MESSAGE_LENGTH);
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_ERROR, player);
+        event.severity = severity;
+        event.message = message;
+        Gdx.app.debug(TAG, "Queuing error event (" + message + ")");
+        addToWaitingQueue(event);
     }
 
 
     /**
-     * submits a throwable immediately and blocks the thread until it is sent
-     * (with a max wait time of three seconds)
+     * submits a throwable immediately. If a crash spool is set, the error event is written to it and uploaded on next
+     * session start, which takes milliseconds and needs no connection. Otherwise the thread is blocked until it is
+     * sent (with a max wait time of three seconds for initializing and three seconds for sending)
      *
      * @param e Exception
      * @return Stacktrace as a string
      * @throws InterruptedException
+     * @see #setCrashSpoolFile(FileHandle)
      */
     protected String sendThrowableAsErrorEventSync(Throwable e) throws InterruptedException {
         String exceptionAsString = GwtIncompatibleStuff.getThrowableStacktraceAsString(e);
 
-        int waitTime = 0;
-        // let's wait three seconds in case initializing is not yet done
-        while ((connectionInitializing || flushingQueue) && waitTime < 30) {
-            Thread.sleep(100);
-            waitTime++;
+        CrashSpool crashSpool = this.crashSpool;
+        if (crashSpool != null) {
+            try {
+                spoolErrorEvent(crashSpool, exceptionAsString);
+                return exceptionAsString;
+            } catch (Throwable t) {
+                Gdx.app.error(TAG, "Could not spool crash, sending it instead", t);
+            }
         }
 
-        submitErrorEvent(ErrorType.error, exceptionAsString);
-        flushQueueImmediately();
+        // in case initializing is not yet done
+        FlushHandle initHandle = this.initHandle;
+        if (initHandle != null)
+            initHandle.await(3000);
 
-        waitTime = 0;
-        // let's wait three seconds in case sending is slow
-        while (flushingQueue && waitTime < 30) {
-            Thread.sleep(100);
-            waitTime++;
-        }
+        submitErrorEvent(ErrorType.error, exceptionAsString);
+        flushQueueImmediately().await(3000);
 
         return exceptionAsString;
     }
 
+    /**
+     * writes an error event to the crash spool. Not deduplicated or throttled, it is the last event of the process
+     */
+    private void spoolErrorEvent(CrashSpool crashSpool, String message) throws IOException {
+        String compacted = ErrorDeduplicator.compact(message);
+        if (compacted.length() > MAX_ERROR_MESSAGE_LENGTH)
+            compacted = compacted.substring(0, MAX_ERROR_MESSAGE_LENGTH);
+
+        // crashes before a session was started are reported with a session of their own
+        String sessionId = session_id != null ? session_id : GwtIncompatibleStuff.generateUuid();
+        AnnotatedEvent event = eventPool.obtain().set(AnnotatedEvent.CATEGORY_ERROR,
+                getCurrentServerTime() / 1000L, sessionId, Math.max(1, session_num));
+        try {
+            event.severity = getSeverityString(ErrorType.error);
+            event.message = compacted;
+            crashSpool.write(toSpoolRecord(event));
+        } finally {
+            eventPool.free(event);
+        }
+    }
+
     private String getSeverityString(ErrorType severity) {
         switch (severity) {
             case info:
@@ -431,51 +1515,132 @@ public class GameAnalytics {
      * closes the ongoing session. Call this on your game's pause() method
      * <p>
      * This is failsafe - if no session is open, nothing is done
+     *
+     * @return completion of sending the session_end event and all events queued before
      */
-    public void closeSession() {
-        //TODO should get saved for next time, but works well on Android (not on Desktop though)
+    public FlushHandle closeSession() {
+        FlushHandle handle = null;
+        // session_end is saved for next time if a journal is set, see setJournalFile()
         if (sessionStartTimestamp > 0 && connectionInitialized) {
-            AnnotatedEvent session_end_event = new AnnotatedEvent();
-            session_end_event.put("category", "session_end");
-            session_end_event.putInt("length", (int) ((TimeUtils.millis() - sessionStartTimestamp) / 1000L));
-
-            //this will not work if queue is full. But in that case, the message will probably never get sent
-            addToWaitingQueue(session_end_event);
-            flushQueueImmediately();
+            DesignEventAggregator aggregator = designEventAggregator;
+            if (aggregator != null)
+                drainAggregatedEvents(aggregator);
+            ErrorDeduplicator deduplicator = errorDeduplicator;
+            if (deduplicator != null)
+                drainRepeatedErrors(deduplicator);
+
+            if (ownSessionEnabled) {
+                AnnotatedEvent session_end_event = obtainEvent(AnnotatedEvent.CATEGORY_SESSION_END);
+                session_end_event.setLength((int) ((TimeUtils.millis() - sessionStartTimestamp) / 1000L));
+
+                //this will not work if queue is full. But in that case, the message will probably never get sent
+                addToWaitingQueue(session_end_event);
+            }
+            handle = flushQueueImmediately();
         }
+        // app might get killed after pause, so don't wait for the schedule
+        syncJournal();
         sessionStartTimestamp = 0;
-    }
 
-    public void flushQueueImmediately() {
-        nextQueueFlushInSeconds = 0;
-        flushQueue();
+        if (handle == null) {
+            handle = new FlushHandle(0);
+            handle.complete(true);
+        }
+        return handle;
     }
 
     /**
-     * send init request
+     * sends all queued events now
+     *
+     * @return completion of sending the events queued before this call. Not successful if sending failed and is
+     * retried later, e.g. when offline
      */
-    protected void submitInitRequest() {
-        Json json = new Json();
-        json.setOutputType(JsonWriter.OutputType.json);
+    public FlushHandle flushQueueImmediately() {
+        FlushHandle handle = new FlushHandle(queueSequences.getLast());
+        synchronized (retryBatches) {
+            int index = pendingFlushes.size;
+            while (index > 0 && pendingFlushes.get(index - 1).lastSequence > handle.lastSequence)
+                index--;
+            pendingFlushes.insert(index, handle);
+        }
+        // nothing queued, or delivered in the meantime
+        completeFlushes();
 
-        String event = "[" + json.toJson(new InitEvent()) + "]";
+        backOffUntilMillis = 0;
+        flushRequested = true;
+        flushQueue();
+        return handle;
+    }
 
-        final Net.HttpRequest request = createHttpRequest(url + game_key + "/init", event);
+    /**
+     * sends all queued events now and blocks the calling thread until they are delivered. Not available on GWT, where
+     * it returns without waiting
+     *
+     * @return true if the events were delivered within the timeout
+     */
+    public boolean awaitFlush(long timeoutMillis) {
+        return flushQueueImmediately().await(timeoutMillis);
+    }
 
+    /**
+     * send init request. The request is built and sent by the flush worker
+     */
+    protected void submitInitRequest() {
         connectionInitialized = false;
         connectionInitializing = true;
         timeStampDiscrepancy = 0;
+        initHandle = new FlushHandle(0);
+
+        try {
+            getFlushWorker().execute(new Runnable() {
+                @Override
+                public void run() {
+                    sendInitRequest();
+                }
+            });
+        } catch (Throwable t) {
+            Gdx.app.error(TAG, "Could not hand over init request to worker", t);
+            initFailed();
+        }
+    }
+
+    private void initFailed() {
+        connectionInitializing = false;
+        initHandle.complete(false);
+        // won't be sent before the next session start
+        failFlushes(0);
+    }
+
+    private void sendInitRequest() {
+        final Net.HttpRequest request;
+        try {
+            synchronized (encoder) {
+                encoder.reset();
+                encoder.beginArray();
+                encoder.beginObject();
+                encoder.field("platform", platform);
+                encoder.field("os_version", platform + " " + os_version);
+                encoder.field("sdk_version", sdk_version);
+                encoder.endObject();
+                encoder.endArray();
+
+                request = createHttpRequest(url + game_key + "/init");
+            }
+        } catch (Throwable t) {
+            Gdx.app.error(TAG, "Could not build init request", t);
+            initFailed();
+            return;
+        }
 
         //Execute and read response
-        Gdx.net.sendHttpRequest(request, new Net.HttpResponseListener() {
+        transport.sendHttpRequest(request, new Net.HttpResponseListener() {
             @Override
             public void handleHttpResponse(Net.HttpResponse httpResponse) {
-                connectionInitialized = httpResponse.getStatus().getStatusCode() == 200;
-                connectionInitializing = false;
+                int statusCode = httpResponse.getStatus().getStatusCode();
                 String resultAsString = httpResponse.getResultAsString();
 
-                if (connectionInitialized) {
-                    Gdx.app.debug(TAG, httpResponse.getStatus().getStatusCode() + " " + resultAsString);
+                if (statusCode == 200) {
+                    Gdx.app.debug(TAG, statusCode + " " + resultAsString);
                     // calculate the client's time stamp discrepancy
 
                     sessionStartTimestamp = TimeUtils.millis();
@@ -488,11 +1653,16 @@ public class GameAnalytics {
                     } catch (Exception e) {
                         // do nothing
                     }
+                    // set last, so threads seeing the session initialized see its start as well. Otherwise
+                    // closeSession() could miss the session
+                    connectionInitialized = true;
+                    connectionInitializing = false;
 
-                    submitStartSessionRequest();
+                    if (ownSessionEnabled)
+                        submitStartSessionRequest();
                     flushQueueImmediately();
 
-                    // add automated task to flush the qeue every 20 seconds
+                    // tick every second and let the flush policy decide if the queue is due, see setFlushPolicy()
                     // FIXME if this is called while lockscreen is on, task is not working. Mostly a problem when
                     // testing with adb
                     if (pingTask == null)
@@ -502,9 +1672,12 @@ public class GameAnalytics {
                                 flushQueue();
                             }
                         }, 1, 1);
-                } else
-                    Gdx.app.error(TAG, "Connection attempt failed: " + httpResponse.getStatus().getStatusCode() + " "
-                            + resultAsString);
+                    initHandle.complete(true);
+                } else {
+                    connectionInitialized = false;
+                    Gdx.app.error(TAG, "Connection attempt failed: " + statusCode + " " + resultAsString);
+                    initFailed();
+                }
             }
 
             @Override
@@ -515,8 +1688,8 @@ public class GameAnalytics {
             @Override
             public void cancelled() {
                 connectionInitialized = false;
-                connectionInitializing = false;
                 Gdx.app.error(TAG, "Could not connect to GameAnalytics - suspended");
+                initFailed();
             }
         });
     }
@@ -528,6 +1701,57 @@ public class GameAnalytics {
         return connectionInitialized;
     }
 
+    private boolean isInitialized(PlayerSession player) {
+        return connectionInitialized && (player == null || !player.closed);
+    }
+
+    /**
+     * opens a session for a player this instance reports for, e.g. on a dedicated game server. Player sessions share
+     * the queue, the flush worker and the batching of this instance, but have their own user id, session and custom
+     * dimensions. Platform, device and build are taken from this instance. A session holds a few hundred bytes,
+     * so tens of thousands can be open at a time.
+     * <p>
+     * The session start is only sent if this instance {@link #isInitialized()}, like any other event.
+     *
+     * @param userId     the player's id, must be the same in every session of the player
+     * @param sessionNum number of the player's session, starting with 1. Must be kept by the caller
+     * @return the session to submit the player's events to. Close it when the player leaves
+     * @see #setOwnSessionEnabled(boolean)
+     */
+    public PlayerSession openPlayerSession(String userId, int sessionNum) {
+        PlayerSession player = new PlayerSession(this, userId, GwtIncompatibleStuff.generateUuid(), sessionNum);
+        if (isInitialized(player))
+            addToWaitingQueue(obtainEvent(AnnotatedEvent.CATEGORY_USER, player));
+        return player;
+    }
+
+    /**
+     * queues the player's session_end event. Events submitted to the session afterwards are ignored
+     */
+    void closePlayerSession(PlayerSession player) {
+        synchronized (player) {
+            if (player.closed)
+                return;
+            player.closed = true;
+        }
+        if (!connectionInitialized)
+            return;
+
+        AnnotatedEvent event = obtainEvent(AnnotatedEvent.CATEGORY_SESSION_END, player);
+        event.setLength((int) (TimeUtils.timeSinceMillis(player.startMillis) / 1000L));
+        addToWaitingQueue(event);
+    }
+
+    /**
+     * @param ownSessionEnabled false if this instance only reports for player sessions, e.g. on a dedicated server.
+     *                          The session of this instance is then initialized as usual, but no user and
+     *                          session_end events are sent for it. Default true
+     * @see #openPlayerSession(String, int)
+     */
+    public void setOwnSessionEnabled(boolean ownSessionEnabled) {
+        this.ownSessionEnabled = ownSessionEnabled;
+    }
+
     /**
      * @return current time on server. Only valid after successful initialization, so check {@link #isInitialized()}
      * before trusting this value
@@ -536,6 +1760,286 @@ public class GameAnalytics {
         return TimeUtils.millis() + timeStampDiscrepancy;
     }
 
+    /**
+     * @return the worker building and sending payloads. Created on first use if none was set
+     */
+    public synchronized FlushWorker getFlushWorker() {
+        if (disposed)
+            throw new IllegalStateException("GameAnalytics already disposed");
+
+        if (flushWorker == null) {
+            flushWorker = GwtIncompatibleStuff.createFlushWorker();
+            ownsFlushWorker = true;
+        }
+
+        return flushWorker;
+    }
+
+    /**
+     * @param flushWorker worker building, compressing, signing and sending the payloads. Set this before starting
+     *                    the session if you want to share a worker between instances or control threading yourself.
+     *                    Default is a single background thread (no threads on GWT). The worker should run jobs one
+     *                    at a time: an instance builds its requests one after another anyway. It is not disposed by
+     *                    {@link #dispose()}, as it might be shared
+     */
+    public synchronized void setFlushWorker(FlushWorker flushWorker) {
+        this.flushWorker = flushWorker;
+        ownsFlushWorker = false;
+    }
+
+    /**
+     * stops the timers and the flush worker this instance created, releasing the worker's thread and compression
+     * resources. Call this after {@link #closeSession()} when the instance is not used anymore: jobs already handed
+     * over are still run and requests in flight are still answered, but nothing is sent afterwards
+     */
+    public void dispose() {
+        if (pingTask != null) {
+            pingTask.cancel();
+            pingTask = null;
+        }
+        if (journalTask != null) {
+            journalTask.cancel();
+            journalTask = null;
+        }
+
+        FlushWorker worker;
+        synchronized (this) {
+            worker = ownsFlushWorker ? flushWorker : null;
+            flushWorker = null;
+            ownsFlushWorker = false;
+            disposed = true;
+        }
+        if (worker != null)
+            worker.dispose();
+    }
+
+    /**
+     * queues the summaries of the current aggregation window and starts a new one
+     */
+    private void drainAggregatedEvents(DesignEventAggregator aggregator) {
+        aggregationWindowStart = TimeUtils.millis();
+        aggregator.drain(aggregatedValue, aggregatedEventConsumer);
+    }
+
+    /**
+     * queues summaries of the errors repeated in the current window and starts a new one
+     */
+    private void drainRepeatedErrors(ErrorDeduplicator deduplicator) {
+        errorWindowStart = TimeUtils.millis();
+        deduplicator.drain(repeatedErrorConsumer);
+    }
+
+    /**
+     * Deduplicates error events. Errors with a stack trace are identified by their severity, exception classes and
+     * stack frames (digits in frames, like line numbers, are ignored), other errors by their severity and message.
+     * Only the first occurrence of an error is sent right away, repeats within the window are counted and sent as
+     * one summary error event when the window ends.
+     *
+     * @param windowSeconds length of the deduplication window, e.g. 60 seconds. 0 disables deduplication, which is
+     *                      the default
+     */
+    public void setErrorDeduplicationWindow(int windowSeconds) {
+        ErrorDeduplicator formerDeduplicator = errorDeduplicator;
+        errorDeduplicationWindowSeconds = windowSeconds;
+
+        if (windowSeconds <= 0) {
+            errorDeduplicator = null;
+            if (formerDeduplicator != null && connectionInitialized)
+                drainRepeatedErrors(formerDeduplicator);
+        } else if (formerDeduplicator == null) {
+            errorWindowStart = TimeUtils.millis();
+            errorDeduplicator = new ErrorDeduplicator(MAX_ERROR_FINGERPRINTS);
+        }
+    }
+
+    /**
+     * Aggregates design events with a value: instead of sending every call of
+     * {@link #submitDesignEvent(String, float)}, count, sum, min and max are collected per event id and sent as one
+     * design event per id and window. Use this for events fired very often, like "kill:enemy". Design events without
+     * a value are not aggregated.
+     *
+     * @param windowSeconds   length of the aggregation window. 0 disables aggregation (default)
+     * @param aggregatedValue the value sent for an event id. Count, Sum, Min, Max or Mean of the values submitted
+     *                        within the window
+     */
+    public void setDesignEventAggregation(int windowSeconds, AggregatedValue aggregatedValue) {
+        if (aggregatedValue == null)
+            throw new IllegalArgumentException("aggregatedValue must not be null");
+
+        DesignEventAggregator formerAggregator = designEventAggregator;
+        this.aggregatedValue = aggregatedValue;
+        aggregationWindowSeconds = windowSeconds;
+
+        if (windowSeconds <= 0) {
+            designEventAggregator = null;
+            // don't lose what was collected so far
+            if (formerAggregator != null && connectionInitialized)
+                drainAggregatedEvents(formerAggregator);
+        } else if (formerAggregator == null) {
+            aggregationWindowStart = TimeUtils.millis();
+            designEventAggregator = new DesignEventAggregator(MAX_AGGREGATED_EVENT_IDS);
+        }
+    }
+
+    /**
+     * Keeps only a share of the submitted events of a category, e.g. 0.1 for every tenth event. Applied before the
+     * rate limit. Shed events are counted, see {@link #getShedEventCount(EventCategory)}.
+     *
+     * @param samplingRate share of events kept, between 0 and 1. Default 1
+     */
+    public void setSamplingRate(EventCategory category, float samplingRate) {
+        if (samplingRate < 0 || samplingRate > 1)
+            throw new IllegalArgumentException("samplingRate must be between 0 and 1");
+
+        throttle.setSamplingRate(category.ordinal(), samplingRate);
+    }
+
+    /**
+     * Limits the number of events of a category queued per second. Events submitted above the limit are shed and
+     * counted, see {@link #getShedEventCount(EventCategory)}.
+     *
+     * @param eventsPerSecond sustained rate. 0 removes the limit (default)
+     * @param burst           number of events accepted at once before the rate applies
+     */
+    public void setRateLimit(EventCategory category, float eventsPerSecond, int burst) {
+        throttle.setRateLimit(category.ordinal(), eventsPerSecond, burst);
+    }
+
+    /**
+     * @return number of events of the category not queued because of sampling or rate limiting
+     */
+    public long getShedEventCount(EventCategory category) {
+        return throttle.getShedCount(category.ordinal());
+    }
+
+    /**
+     * Sets the queue lane for a category. When a lane is full, its oldest event is dropped - but events with High
+     * priority are never dropped. The user and session_end events and critical errors always have High priority,
+     * debug and info errors always Low.
+     * <p>
+     * Defaults: Business High, Progression, Resource and Error Normal, Design Low
+     */
+    public void setEventPriority(EventCategory category, EventPriority priority) {
+        categoryPriorities[category.ordinal()] = priority;
+    }
+
+    /**
+     * @return number of events waiting in the priority's lane
+     */
+    public int getQueuedEventCount(EventPriority priority) {
+        return waitingQueue.size(priority.ordinal());
+    }
+
+    /**
+     * @return number of events the priority's lane holds before dropping events. High priority events are not
+     * dropped, but exceed the capacity
+     */
+    public int getQueueCapacity(EventPriority priority) {
+        return waitingQueue.capacity(priority.ordinal());
+    }
+
+    /**
+     * @return number of events dropped because the priority's lane was full
+     */
+    public long getDroppedEventCount(EventPriority priority) {
+        return waitingQueue.getDropCount(priority.ordinal());
+    }
+
+    /**
+     * @return counters, gauges and histograms of the event pipeline, to poll or to subscribe to with
+     * {@link AnalyticsMetrics#addListener(AnalyticsMetrics.Listener)}. Recording them does not allocate
+     */
+    public AnalyticsMetrics getMetrics() {
+        return metrics;
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    /**
+     * @param flushPolicy decides when queued events are sent and how many go into one request. Default is
+     *                    {@link IntervalFlushPolicy}: every 20 seconds, up to 100 events. Use
+     *                    {@link AdaptiveFlushPolicy} to send bursts and large events earlier.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        if (flushPolicy == null)
+            throw new IllegalArgumentException("flushPolicy must not be null");
+
+        this.flushPolicy = flushPolicy;
+    }
+
+    public int getMaxBatchesInFlight() {
+        return maxBatchesInFlight;
+    }
+
+    /**
+     * @param maxBatchesInFlight number of requests sent at the same time when draining a backlog, e.g. after being
+     *                           offline. Each batch is acknowledged on its own, batches not accepted are sent again in
+     *                           their original order. Default 1
+     */
+    public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+        if (maxBatchesInFlight < 1)
+            throw new IllegalArgumentException("maxBatchesInFlight must be at least 1");
+
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    public int getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    /**
+     * @param maxRequestBytes maximum size of a request's body as sent, so after compression. Batches exceeding it
+     *                        are split, single events exceeding it are dropped. Default 1 MB
+     */
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold request bodies smaller than this number of bytes are sent uncompressed, e.g. the
+     *                             init request and single events. 0 to compress everything. Default 512. Bodies
+     *                             gzip does not make smaller are always sent uncompressed, and all of them on GWT
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel deflate level from 1 (fastest) to 9 (smallest), or -1 for the default of 6. Lower
+     *                         levels save cpu time on the flush worker for a few percent larger requests. Not
+     *                         used on GWT, where requests are sent uncompressed
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel != DEFAULT_COMPRESSION_LEVEL && (compressionLevel < 1 || compressionLevel > 9))
+            throw new IllegalArgumentException("compressionLevel must be from 1 to 9, or -1");
+
+        this.compressionLevel = compressionLevel;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @param transport sends the requests. Default is {@link GdxNetTransport}, using Gdx.net
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null)
+            throw new IllegalArgumentException("transport must not be null");
+
+        this.transport = transport;
+    }
+
     public void setGameKey(String gamekey) {
         this.game_key = gamekey;
     }
@@ -552,23 +2056,24 @@ public class GameAnalytics {
         switch (platform) {
             case Windows:
                 this.platform = "windows";
-                return;
+                break;
             case WebGL:
                 this.platform = "webgl";
-                return;
+                break;
             case iOS:
                 this.platform = "ios";
-                return;
+                break;
             case MacOS:
                 this.platform = "mac_osx";
-                return;
+                break;
             case Android:
                 this.platform = "android";
-                return;
+                break;
             case Linux:
                 this.platform = "linux";
-                return;
+                break;
         }
+        annotationsChanged();
     }
 
     public String getPlatformVersionString() {
@@ -581,6 +2086,7 @@ public class GameAnalytics {
      */
     public boolean setPlatformVersionString(String os_version) {
         this.os_version = os_version;
+        annotationsChanged();
         boolean matches = os_version.matches("[0-9]{0,5}(\\.[0-9]{0,5}){0,2}");
         return matches;
     }
@@ -595,6 +2101,7 @@ public class GameAnalytics {
      */
     public void setGameBuildNumber(String build) {
         this.build = build;
+        annotationsChanged();
     }
 
     /**
@@ -605,18 +2112,74 @@ public class GameAnalytics {
             device = device.substring(0, 30);
 
         this.device = device;
+        annotationsChanged();
     }
 
     public void setManufacturer(String manufacturer) {
         this.manufacturer = manufacturer;
+        annotationsChanged();
+    }
+
+    /**
+     * @param prefsName name of the preferences to save user id, session and transaction numbers in. Needed for
+     *                  session and user tracking. GameAnalytics writes them in background, so they must not be used
+     *                  by anyone else. Set this before calling {@link #startSession()}
+     */
+    public void setPrefsName(String prefsName) {
+        this.prefsName = prefsName;
+        prefs = null;
+        transactionNums = null;
     }
 
     /**
-     * @param prefs your game's preferences. Needed to save user id and session information. All settings will be
-     *              saved with "ga_" prefix to not interphere with your other settings
+     * @param prefs your game's preferences, where former versions saved user id and session information. They are
+     *              only read, the values are taken over into preferences of GameAnalytics' own
+     * @deprecated GameAnalytics writes its preferences in background, which is not safe while the game writes to
+     * them, too. Use {@link #setPrefsName(String)}
      */
+    @Deprecated
     public void setPrefs(Preferences prefs) {
-        this.prefs = prefs;
+        formerPrefs = prefs;
+        if (prefsName == null)
+            prefsName = DEFAULT_PREFS_NAME;
+        this.prefs = null;
+        transactionNums = null;
+    }
+
+    /**
+     * @param journalFile local file to keep queued events in, so they are not lost when the app gets killed or
+     *                    crashes while offline. Events are replayed and sent on next session start. Writes are
+     *                    batched and done in background. Set this before calling {@link #startSession()}.
+     *                    Not supported on GWT.
+     */
+    public void setJournalFile(FileHandle journalFile) {
+        this.journal = journalFile != null ? new EventJournal(journalFile) : null;
+        journalReplayed = false;
+    }
+
+    /**
+     * @param crashSpoolFile local file the uncaught exception handler writes crashes to, instead of sending them
+     *                       while the process is torn down. Spooled crashes are uploaded with high priority on
+     *                       next session start and removed when delivered. Set this before calling
+     *                       {@link #startSession()}. Not supported on GWT.
+     */
+    public void setCrashSpoolFile(FileHandle crashSpoolFile) {
+        this.crashSpool = crashSpoolFile != null ? new CrashSpool(crashSpoolFile) : null;
+    }
+
+    /**
+     * @return true if crashes are written to a spool file, see {@link #setCrashSpoolFile(FileHandle)}
+     */
+    public boolean hasCrashSpool() {
+        return crashSpool != null;
+    }
+
+    /**
+     * sets a crash spool in local storage if none is set. For platforms with local storage private to the app
+     */
+    protected void useDefaultCrashSpool() {
+        if (crashSpool == null)
+            setCrashSpoolFile(Gdx.files.local(DEFAULT_CRASH_SPOOL_FILE));
     }
 
     /**
@@ -624,6 +2187,7 @@ public class GameAnalytics {
      */
     public void setCustom1(String custom1) {
         this.custom1 = custom1;
+        annotationsChanged();
     }
 
     /**
@@ -631,6 +2195,7 @@ public class GameAnalytics {
      */
     public void setCustom2(String custom2) {
         this.custom2 = custom2;
+        annotationsChanged();
     }
 
     /**
@@ -638,6 +2203,7 @@ public class GameAnalytics {
      */
     public void setCustom3(String custom3) {
         this.custom3 = custom3;
+        annotationsChanged();
     }
 
     public enum ProgressionStatus {Start, Fail, Complete}
@@ -646,6 +2212,18 @@ public class GameAnalytics {
 
     public enum ErrorType {debug, info, warning, error, critical}
 
+    public enum AggregatedValue {Count, Sum, Min, Max, Mean}
+
+    /**
+     * categories of submitted events, for sampling and rate limiting
+     */
+    public enum EventCategory {Design, Business, Progression, Resource, Error}
+
+    /**
+     * queue lanes. Flushes send High priority events first, full lanes drop Low and Normal events
+     */
+    public enum EventPriority {High, Normal, Low}
+
     /**
      * Gameanalytics does not allow free definition of platforms.
      *
@@ -654,74 +2232,4 @@ public class GameAnalytics {
     public enum Platform {
         Windows, Linux, Android, iOS, WebGL, MacOS
     }
-
-    private class InitEvent implements Json.Serializable {
-        @Override
-        public void write(Json json) {
-            json.writeValue("platform", platform);
-            json.writeValue("os_version", platform + " " + os_version);
-            json.writeValue("sdk_version", sdk_version);
-        }
-
-        @Override
-        public void read(Json json, JsonValue jsonData) {
-            // not implemented
-        }
-    }
-
-    private class AnnotatedEvent implements Json.Serializable {
-        private Map<String, Object> keyValues = new HashMap<>();
-        private String sessionId;
-        private int sessionNum;
-
-        public AnnotatedEvent() {
-            //this is stored
-            keyValues.put("client_ts", (Long) getCurrentServerTime() / 1000L);
-            this.sessionId = session_id;
-            this.sessionNum = session_num;
-        }
-
-        @Override
-        public void write(Json event) {
-            event.writeValue("platform", platform);
-            event.writeValue("os_version", platform + " " + os_version);
-            event.writeValue("sdk_version", sdk_version);
-            event.writeValue("device", device);
-            event.writeValue("manufacturer", manufacturer);
-            if (build != null)
-                event.writeValue("build", build);
-            event.writeValue("user_id", user_id);
-            event.writeValue("v", 2);
-            if (custom1 != null)
-                event.writeValue("custom_01", custom1);
-            if (custom2 != null)
-                event.writeValue("custom_02", custom2);
-            if (custom3 != null)
-                event.writeValue("custom_03", custom3);
-
-            event.writeValue("session_id", sessionId);
-            event.writeValue("session_num", sessionNum);
-
-            for (String key : keyValues.keySet()) {
-                event.writeValue(key, keyValues.get(key));
-            }
-        }
-
-        @Override
-        public void read(Json json, JsonValue jsonData) {
-            // not supported
-        }
-
-        public void put(String name, String value) {
-            keyValues.put(name, value);
-        }
-
-        public void putInt(String name, int value) {
-            keyValues.put(name, value);
-        }
-
-        public void putFloat(String name, float value) {
-            keyValues.put(name, value);
-        }
-    }
 }
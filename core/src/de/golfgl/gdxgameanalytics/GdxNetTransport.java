@@ -0,0 +1,14 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Net;
+
+/**
+ * Default {@link Transport}, sending with the backend's {@link Net}
+ */
+public class GdxNetTransport implements Transport {
+    @Override
+    public void sendHttpRequest(Net.HttpRequest request, Net.HttpResponseListener listener) {
+        Gdx.net.sendHttpRequest(request, listener);
+    }
+}
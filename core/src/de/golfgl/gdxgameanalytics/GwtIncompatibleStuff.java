@@ -3,19 +3,21 @@ package de.golfgl.gdxgameanalytics;
 import com.badlogic.gdx.Application;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Net;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Base64Coder;
 import com.badlogic.gdx.utils.SharedLibraryLoader;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.UUID;
-import java.util.zip.GZIPOutputStream;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Created by Benjamin Schulte on 05.05.2018.
@@ -23,16 +25,22 @@ import javax.crypto.spec.SecretKeySpec;
 
 public class GwtIncompatibleStuff {
 
-    private static String generateHash(byte[] json, String secretKey) {
+    /**
+     * compression and signing state, kept per thread as flushes run on the flush worker
+     */
+    private static final ThreadLocal<GzipHmacContext> gzipHmacContext = new ThreadLocal<GzipHmacContext>() {
+        @Override
+        protected GzipHmacContext initialValue() {
+            return new GzipHmacContext(4 * 1024);
+        }
+    };
+
+    private static Mac getMac(GzipHmacContext context, String secretKey) {
         try {
-            Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-            byte[] encoded = secretKey.getBytes();
-            SecretKeySpec secretKeySpec = new SecretKeySpec(encoded, "HmacSHA256");
-            sha256_HMAC.init(secretKeySpec);
-            return new String(Base64Coder.encode(sha256_HMAC.doFinal(json)));
+            return context.getMac(secretKey);
         } catch (Exception ex) {
             Gdx.app.error(GameAnalytics.TAG, "Error generating Hmac: " + ex.toString());
-            return "";
+            return null;
         }
     }
 
@@ -44,6 +52,13 @@ public class GwtIncompatibleStuff {
         return sid.toString();
     }
 
+    /**
+     * @return worker running flushes on a background thread
+     */
+    protected static FlushWorker createFlushWorker() {
+        return new ThreadFlushWorker();
+    }
+
     protected static GameAnalytics.Platform getDefaultPlatform(Application.ApplicationType type) {
         switch (type) {
             case Android:
@@ -65,44 +80,173 @@ public class GwtIncompatibleStuff {
     }
 
     /**
-     * sets the http request content, zipped if possible.
+     * @return true if request bodies can be gzipped, false on GWT
+     */
+    protected static boolean isCompressionSupported() {
+        return true;
+    }
+
+    /**
+     * sets the http request content, gzipped if it is at least compressionThreshold bytes long and compressing
+     * makes it smaller
      *
+     * @param content          utf-8 encoded content, only the first length bytes are used
+     * @param compressionLevel deflate level, -1 for the default
      * @return header for authentication
      */
-    public static String setHttpRequestContent(Net.HttpRequest request, String content, String secretKey) {
+    public static String setHttpRequestContent(Net.HttpRequest request, byte[] content, int length,
+                                               String secretKey, int compressionThreshold, int compressionLevel) {
+        GzipHmacContext context = gzipHmacContext.get();
+        Mac mac = getMac(context, secretKey);
         byte[] compressedContent = null;
-        String hash;
 
-        try {
-            compressedContent = compress(content);
-        } catch (Throwable t) {
-            // do nothing
+        if (length >= compressionThreshold) {
+            try {
+                // the compressed bytes are hashed while they are produced
+                context.setLevel(compressionLevel);
+                context.compress(content, length, mac);
+                // the request's stream is read on the network thread, so it gets its own copy of the reused buffer
+                if (context.getOutputLength() < length)
+                    compressedContent = Arrays.copyOf(context.getOutput(), context.getOutputLength());
+            } catch (Throwable t) {
+                // do nothing
+            }
         }
 
-        Gdx.app.debug(GameAnalytics.TAG, content);
+        if (Gdx.app.getLogLevel() >= Application.LOG_DEBUG)
+            Gdx.app.debug(GameAnalytics.TAG, decodeUtf8(content, length));
 
         if (compressedContent != null) {
-            Gdx.app.debug(GameAnalytics.TAG, "(Compressed from " + content.length() +
+            Gdx.app.debug(GameAnalytics.TAG, "(Compressed from " + length +
                     " to " + compressedContent.length + " bytes)");
 
             request.setContent(new ByteArrayInputStream(compressedContent), compressedContent.length);
-            hash = GwtIncompatibleStuff.generateHash(compressedContent, secretKey);
             request.setHeader("Content-Encoding", "gzip");
         } else {
-            hash = GwtIncompatibleStuff.generateHash(content.getBytes(), secretKey);
-            request.setContent(content);
+            byte[] uncompressedContent = Arrays.copyOf(content, length);
+            if (mac != null) {
+                mac.reset();
+                mac.update(uncompressedContent);
+            }
+            request.setContent(new ByteArrayInputStream(uncompressedContent), length);
         }
-        return hash;
+        return mac != null ? new String(Base64Coder.encode(mac.doFinal())) : "";
     }
 
     public static byte[] compress(String paramString) throws IOException {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(paramString.length());
-        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
-        gzipOutputStream.write(paramString.getBytes());
-        gzipOutputStream.close();
-        byte[] bytes = byteArrayOutputStream.toByteArray();
-        byteArrayOutputStream.close();
-        return bytes;
+        byte[] bytes = paramString.getBytes("UTF-8");
+        return compress(bytes, bytes.length);
+    }
+
+    public static byte[] compress(byte[] content, int length) throws IOException {
+        GzipHmacContext context = gzipHmacContext.get();
+        context.compress(content, length, null);
+        return Arrays.copyOf(context.getOutput(), context.getOutputLength());
+    }
+
+    /**
+     * frees the native compression resources held for the calling thread
+     */
+    protected static void disposeThreadResources() {
+        gzipHmacContext.get().dispose();
+        gzipHmacContext.remove();
+    }
+
+    protected static String decodeUtf8(byte[] content, int length) {
+        try {
+            return new String(content, 0, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * appends content to a file, creating it if needed
+     *
+     * @param sync if true, returns not before the content is written to the storage device (fsync)
+     */
+    protected static void appendToFile(FileHandle file, String content, boolean sync) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        appendToFile(file, bytes, bytes.length, sync);
+    }
+
+    /**
+     * appends the first length bytes of content to a file, creating it if needed
+     *
+     * @param sync if true, returns not before the content is written to the storage device (fsync)
+     */
+    protected static void appendToFile(FileHandle file, byte[] content, int length, boolean sync)
+            throws IOException {
+        writeFile(file.file(), content, length, true, sync);
+    }
+
+    /**
+     * replaces a file's content. The new content is written to a temporary file first, so a crash while writing
+     * leaves the old content intact
+     */
+    protected static void replaceFile(FileHandle file, String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        replaceFile(file, bytes, bytes.length);
+    }
+
+    /**
+     * replaces a file's content by the first length bytes of content, see {@link #replaceFile(FileHandle, String)}
+     */
+    protected static void replaceFile(FileHandle file, byte[] content, int length) throws IOException {
+        File target = file.file();
+        File temp = new File(target.getPath() + ".tmp");
+        writeFile(temp, content, length, false, true);
+        if (!temp.renameTo(target)) {
+            // some platforms don't replace existing files on rename
+            target.delete();
+            if (!temp.renameTo(target))
+                throw new IOException("Could not replace " + target.getPath());
+        }
+    }
+
+    private static void writeFile(File file, byte[] content, int length, boolean append, boolean sync)
+            throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists())
+            parent.mkdirs();
+
+        FileOutputStream outputStream = new FileOutputStream(file, append);
+        try {
+            outputStream.write(content, 0, length);
+            if (sync)
+                outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * blocks until the handle is done, the timeout elapsed or the thread is interrupted. The interrupt flag is kept
+     */
+    protected static void awaitDone(FlushHandle handle, long timeoutMillis) {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        synchronized (handle) {
+            try {
+                while (!handle.isDone()) {
+                    long remaining = end - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        return;
+                    handle.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * wakes up threads waiting in {@link #awaitDone(FlushHandle, long)}
+     */
+    protected static void signalDone(FlushHandle handle) {
+        synchronized (handle) {
+            handle.notifyAll();
+        }
     }
 
     public static String getThrowableStacktraceAsString(Throwable e) {
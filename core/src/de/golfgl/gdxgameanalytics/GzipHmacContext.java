@@ -0,0 +1,140 @@
+package de.golfgl.gdxgameanalytics;
+
+import java.security.GeneralSecurityException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Compresses payloads to the gzip format and signs them with HMAC-SHA256 in one pass: the compressed bytes are fed
+ * into the {@link Mac} as the {@link Deflater} produces them, so the payload is not read a second time for hashing.
+ * <p>
+ * The keyed Mac, the Deflater and the output buffer are kept and reset between payloads, so no native deflate
+ * stream is created and no security provider lookup is done per request.
+ * <p>
+ * Not thread-safe, {@link GwtIncompatibleStuff} keeps one instance per worker thread. Not available on GWT.
+ */
+class GzipHmacContext {
+    private static final String ALGORITHM = "HmacSHA256";
+    // magic number, deflate, no flags, no modification time, no extra flags, OS unknown like GZIPOutputStream
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int TRAILER_LENGTH = 8;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private final CRC32 crc = new CRC32();
+    private Mac mac;
+    private String macKey;
+    private byte[] output;
+    private int outputLength;
+
+    GzipHmacContext(int initialCapacity) {
+        output = new byte[Math.max(initialCapacity, GZIP_HEADER.length + TRAILER_LENGTH + 16)];
+    }
+
+    /**
+     * @return the Mac keyed with secretKey. Initialized once and kept as long as the key does not change
+     */
+    Mac getMac(String secretKey) throws GeneralSecurityException {
+        if (mac == null || !secretKey.equals(macKey)) {
+            Mac newMac = Mac.getInstance(ALGORITHM);
+            newMac.init(new SecretKeySpec(secretKey.getBytes(), ALGORITHM));
+            mac = newMac;
+            macKey = secretKey;
+        }
+        return mac;
+    }
+
+    /**
+     * @param level deflate level used from the next {@link #compress(byte[], int, Mac)} call on, see
+     *              {@link Deflater#setLevel(int)}
+     */
+    void setLevel(int level) {
+        if (level != this.level) {
+            deflater.setLevel(level);
+            this.level = level;
+        }
+    }
+
+    /**
+     * compresses the first length bytes of content to the gzip format, see {@link #getOutput()}
+     *
+     * @param mac if not null, it is reset and updated with the compressed bytes. Call {@link Mac#doFinal()} for
+     *            the signature
+     */
+    void compress(byte[] content, int length, Mac mac) {
+        if (mac != null)
+            mac.reset();
+        outputLength = 0;
+
+        write(GZIP_HEADER, 0, GZIP_HEADER.length, mac);
+
+        crc.reset();
+        crc.update(content, 0, length);
+        deflater.reset();
+        deflater.setInput(content, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            if (outputLength == output.length)
+                grow(output.length);
+            int deflated = deflater.deflate(output, outputLength, output.length - outputLength);
+            if (mac != null)
+                mac.update(output, outputLength, deflated);
+            outputLength += deflated;
+        }
+
+        ensureCapacity(TRAILER_LENGTH);
+        int trailerStart = outputLength;
+        writeIntLE((int) crc.getValue());
+        writeIntLE(length);
+        if (mac != null)
+            mac.update(output, trailerStart, TRAILER_LENGTH);
+    }
+
+    /**
+     * @return the output buffer of the last {@link #compress(byte[], int, Mac)} call. Only the first
+     * {@link #getOutputLength()} bytes are valid, and the content is overwritten by the next call
+     */
+    byte[] getOutput() {
+        return output;
+    }
+
+    int getOutputLength() {
+        return outputLength;
+    }
+
+    /**
+     * frees the native resources of the deflater. The context can't be used afterwards
+     */
+    void dispose() {
+        deflater.end();
+    }
+
+    private void write(byte[] bytes, int offset, int length, Mac mac) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, output, outputLength, length);
+        if (mac != null)
+            mac.update(bytes, offset, length);
+        outputLength += length;
+    }
+
+    private void writeIntLE(int value) {
+        output[outputLength++] = (byte) value;
+        output[outputLength++] = (byte) (value >> 8);
+        output[outputLength++] = (byte) (value >> 16);
+        output[outputLength++] = (byte) (value >> 24);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (outputLength + additional > output.length)
+            grow(outputLength + additional - output.length);
+    }
+
+    private void grow(int atLeast) {
+        byte[] newOutput = new byte[Math.max(output.length * 2, output.length + atLeast)];
+        System.arraycopy(output, 0, newOutput, 0, outputLength);
+        output = newOutput;
+    }
+}
@@ -0,0 +1,86 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Histogram with exponential buckets: bucket 0 counts values up to 1, bucket i values up to 2^i. Recording is
+ * lock-free and does not allocate, percentiles are approximated by the upper bound of their bucket.
+ */
+public class Histogram {
+    private static final int BUCKET_COUNT = 32;
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    private final AtomicLongs buckets = new AtomicLongs(BUCKET_COUNT);
+    private final AtomicLongs totals = new AtomicLongs(3);
+
+    void record(long value) {
+        if (value < 0)
+            value = 0;
+
+        int bucket = 0;
+        while (bucket < BUCKET_COUNT - 1 && getBucketUpperBound(bucket) < value)
+            bucket++;
+        buckets.incrementAndGet(bucket);
+        totals.incrementAndGet(COUNT);
+        totals.addAndGet(SUM, value);
+
+        long formerMax = totals.get(MAX);
+        while (value > formerMax && !totals.compareAndSet(MAX, formerMax, value))
+            formerMax = totals.get(MAX);
+    }
+
+    public long getCount() {
+        return totals.get(COUNT);
+    }
+
+    public long getSum() {
+        return totals.get(SUM);
+    }
+
+    public long getMax() {
+        return totals.get(MAX);
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count > 0 ? (double) getSum() / count : 0;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 99
+     * @return upper bound of the bucket containing the percentile, but not more than the maximum. 0 if nothing was
+     * recorded
+     */
+    public long getPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank)
+                return Math.min(getBucketUpperBound(bucket), getMax());
+        }
+        return getMax();
+    }
+
+    public int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * @return number of values recorded in the bucket
+     */
+    public long getBucketValueCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * @return largest value counted in the bucket. The last bucket counts all larger values, too
+     */
+    public long getBucketUpperBound(int bucket) {
+        return 1L << bucket;
+    }
+}
@@ -0,0 +1,38 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Flushes on a fixed interval, no matter how many events are waiting. This is the default policy: every 20 seconds,
+ * with up to 100 events per request.
+ */
+public class IntervalFlushPolicy implements FlushPolicy {
+    private final int intervalSeconds;
+    private final int maxEventsPerRequest;
+
+    public IntervalFlushPolicy() {
+        this(20, 100);
+    }
+
+    public IntervalFlushPolicy(int intervalSeconds, int maxEventsPerRequest) {
+        if (maxEventsPerRequest < 1)
+            throw new IllegalArgumentException("maxEventsPerRequest must be at least 1");
+
+        this.intervalSeconds = intervalSeconds;
+        this.maxEventsPerRequest = maxEventsPerRequest;
+    }
+
+    @Override
+    public boolean isFlushDue(int queuedEvents, long queuedBytes, long oldestEventAgeMillis,
+                              long millisSinceLastFlush) {
+        return millisSinceLastFlush >= intervalSeconds * 1000L;
+    }
+
+    @Override
+    public int getMaxEventsPerRequest() {
+        return maxEventsPerRequest;
+    }
+
+    @Override
+    public int getMaxPayloadBytes() {
+        return Integer.MAX_VALUE;
+    }
+}
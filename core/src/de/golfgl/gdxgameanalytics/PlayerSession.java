@@ -0,0 +1,193 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * Session of a player a {@link GameAnalytics} instance reports for, e.g. on a dedicated game server. Obtain it with
+ * {@link GameAnalytics#openPlayerSession(String, int)} and close it when the player leaves.
+ * <p>
+ * A session only keeps what differs between players: user id, session, custom dimensions and the transaction
+ * number. Its events go to the queue of the instance and are sent in the same batches as all other events. The
+ * player's annotations are encoded once and spliced into each of the player's events, like the shared
+ * annotations of the instance.
+ * <p>
+ * Thread-safe, events can be submitted from any thread.
+ */
+public class PlayerSession {
+    private final GameAnalytics engine;
+    final String userId;
+    final String sessionId;
+    final int sessionNum;
+    final long startMillis = TimeUtils.millis();
+    volatile boolean closed;
+    private String custom1;
+    private String custom2;
+    private String custom3;
+    private int transactionNum;
+    // encoded on the flush worker, null after a setter changed a value
+    private byte[] encodedAnnotations;
+    private int encodedEngineVersion;
+
+    PlayerSession(GameAnalytics engine, String userId, String sessionId, int sessionNum) {
+        this.engine = engine;
+        this.userId = userId;
+        this.sessionId = sessionId;
+        this.sessionNum = sessionNum;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public int getSessionNum() {
+        return sessionNum;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @param custom1 value for custom dimension. 50 different values supported at max, max length 32
+     */
+    public synchronized void setCustom1(String custom1) {
+        this.custom1 = custom1;
+        encodedAnnotations = null;
+    }
+
+    /**
+     * @param custom2 value for custom dimension. 50 different values supported at max, max length 32
+     */
+    public synchronized void setCustom2(String custom2) {
+        this.custom2 = custom2;
+        encodedAnnotations = null;
+    }
+
+    /**
+     * @param custom3 value for custom dimension. 50 different values supported at max, max length 32
+     */
+    public synchronized void setCustom3(String custom3) {
+        this.custom3 = custom3;
+        encodedAnnotations = null;
+    }
+
+    /**
+     * @param transactionNum number of the player's last business event, the next one is sent with the number
+     *                       following it. Keep it with the player's data, it counts over all sessions
+     */
+    public synchronized void setTransactionNum(int transactionNum) {
+        this.transactionNum = transactionNum;
+    }
+
+    public synchronized int getTransactionNum() {
+        return transactionNum;
+    }
+
+    synchronized int nextTransactionNum() {
+        return ++transactionNum;
+    }
+
+    /**
+     * @param engineVersion version of the shared annotations of the instance, a new version encodes again
+     * @return the annotations of the player's events. Called by the flush worker
+     */
+    synchronized byte[] getEncodedAnnotations(int engineVersion) {
+        if (encodedAnnotations == null || encodedEngineVersion != engineVersion) {
+            EventEncoder encoder = new EventEncoder(512);
+            engine.writeAnnotations(encoder, userId, custom1, custom2, custom3);
+            // exactly sized, there can be many sessions
+            encodedAnnotations = encoder.toArray();
+            encodedEngineVersion = engineVersion;
+        }
+        return encodedAnnotations;
+    }
+
+    /**
+     * queues the session_end event. Events submitted afterwards are ignored
+     */
+    public void close() {
+        engine.closePlayerSession(this);
+    }
+
+    public void submitDesignEvent(String event_id) {
+        engine.submitDesignEvent(this, event_id);
+    }
+
+    /**
+     * design events of player sessions are not aggregated
+     */
+    public void submitDesignEvent(String event_id, float value) {
+        engine.submitDesignEvent(this, null, event_id, value);
+    }
+
+    /**
+     * @param eventId obtained by {@link GameAnalytics#designEvent(String)}
+     */
+    public void submitDesignEvent(EventId eventId) {
+        engine.submitDesignEvent(this, eventId);
+    }
+
+    /**
+     * @param eventId obtained by {@link GameAnalytics#designEvent(String)}
+     */
+    public void submitDesignEvent(EventId eventId, float value) {
+        GameAnalytics.checkCategory(eventId, AnnotatedEvent.CATEGORY_DESIGN);
+        engine.submitDesignEvent(this, eventId, eventId.eventId, value);
+    }
+
+    /**
+     * @see GameAnalytics#submitBusinessEvent(String, String, int, String)
+     * @see #setTransactionNum(int)
+     */
+    public void submitBusinessEvent(String itemType, String itemId, int amount, String currency) {
+        engine.submitBusinessEvent(this, itemType, itemId, amount, currency);
+    }
+
+    public void submitProgressionEvent(GameAnalytics.ProgressionStatus status, String progression01,
+                                       String progression02, String progression03) {
+        engine.submitProgressionEvent(this, status, progression01, progression02, progression03, 0, 0);
+    }
+
+    public void submitProgressionEvent(GameAnalytics.ProgressionStatus status, String progression01,
+                                       String progression02, String progression03, int score, int attemptNum) {
+        engine.submitProgressionEvent(this, status, progression01, progression02, progression03, score, attemptNum);
+    }
+
+    /**
+     * @param eventId obtained by {@link GameAnalytics#progressionEvent(GameAnalytics.ProgressionStatus, String...)}
+     */
+    public void submitProgressionEvent(EventId eventId) {
+        engine.submitProgressionEvent(this, eventId, 0, 0);
+    }
+
+    /**
+     * @param eventId obtained by {@link GameAnalytics#progressionEvent(GameAnalytics.ProgressionStatus, String...)}
+     */
+    public void submitProgressionEvent(EventId eventId, int score, int attemptNum) {
+        engine.submitProgressionEvent(this, eventId, score, attemptNum);
+    }
+
+    public void submitResourceEvent(GameAnalytics.ResourceFlowType flowType, String virtualCurrency, String itemType,
+                                    String itemId, float amount) {
+        engine.submitResourceEvent(this, flowType, virtualCurrency, itemType, itemId, amount);
+    }
+
+    /**
+     * @param eventId obtained by {@link GameAnalytics#resourceEvent(GameAnalytics.ResourceFlowType, String, String,
+     *                String)}
+     */
+    public void submitResourceEvent(EventId eventId, float amount) {
+        engine.submitResourceEvent(this, eventId, amount);
+    }
+
+    /**
+     * error events of player sessions are not deduplicated
+     */
+    public void submitErrorEvent(GameAnalytics.ErrorType severity, String message) {
+        engine.submitErrorEvent(this, severity, message);
+    }
+}
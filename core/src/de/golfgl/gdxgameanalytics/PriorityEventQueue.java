@@ -0,0 +1,125 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Queue;
+
+/**
+ * Waiting events in one bounded lane per priority, so a flood of low priority events can't push out valuable ones.
+ * Polling takes events from the highest priority lane first.
+ * <p>
+ * A full lane either drops its oldest event, or, if it must not drop, spills into an overflow queue. The overflow
+ * queue is locked, but only used from the moment the lane's ring buffer is full until it is drained again, so
+ * offering and polling are lock-free otherwise.
+ */
+class PriorityEventQueue {
+    private final Lane[] lanes;
+    private final AtomicLongs dropCounts;
+    private final DropListener dropListener;
+
+    /**
+     * @param capacities one per lane, highest priority first. Rounded up to the next power of two
+     * @param neverDrop  per lane, if true the lane spills into an overflow queue instead of dropping
+     */
+    PriorityEventQueue(int[] capacities, boolean[] neverDrop, DropListener dropListener) {
+        lanes = new Lane[capacities.length];
+        for (int i = 0; i < capacities.length; i++)
+            lanes[i] = new Lane(capacities[i], neverDrop[i]);
+        dropCounts = new AtomicLongs(capacities.length);
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * thread-safe and lock-free unless a lane spills. If the lane is full, its oldest event is dropped and handed to
+     * the drop listener
+     */
+    void offer(AnnotatedEvent event, int priority) {
+        Lane lane = lanes[priority];
+        if (lane.neverDrop) {
+            // once spilled, events go to the overflow until it is drained, so they are polled in order
+            if (lane.overflowSize == 0 && lane.events.offer(event))
+                return;
+            synchronized (lane.overflow) {
+                lane.overflow.addLast(event);
+                lane.overflowSize++;
+            }
+            return;
+        }
+
+        while (!lane.events.offer(event)) {
+            AnnotatedEvent dropped = lane.events.poll();
+            if (dropped != null) {
+                dropCounts.incrementAndGet(priority);
+                dropListener.dropped(dropped);
+            }
+        }
+    }
+
+    /**
+     * @return oldest event of the highest priority lane that is not empty, or null if all are empty
+     */
+    AnnotatedEvent poll() {
+        for (Lane lane : lanes) {
+            AnnotatedEvent event = lane.events.poll();
+            if (event == null && lane.overflowSize > 0) {
+                synchronized (lane.overflow) {
+                    if (lane.overflow.size > 0) {
+                        event = lane.overflow.removeFirst();
+                        lane.overflowSize--;
+                    }
+                }
+            }
+            if (event != null)
+                return event;
+        }
+        return null;
+    }
+
+    int size() {
+        int size = 0;
+        for (int i = 0; i < lanes.length; i++)
+            size += size(i);
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return number of events waiting in a lane, including spilled ones. Only a snapshot
+     */
+    int size(int priority) {
+        Lane lane = lanes[priority];
+        return lane.events.size() + lane.overflowSize;
+    }
+
+    /**
+     * @return capacity of a lane's ring buffer. Lanes that never drop can hold more
+     */
+    int capacity(int priority) {
+        return lanes[priority].events.capacity();
+    }
+
+    long getDropCount(int priority) {
+        return dropCounts.get(priority);
+    }
+
+    interface DropListener {
+        /**
+         * called on the thread offering, after the event was removed from its lane
+         */
+        void dropped(AnnotatedEvent event);
+    }
+
+    private static class Lane {
+        final RingBuffer<AnnotatedEvent> events;
+        final boolean neverDrop;
+        final Queue<AnnotatedEvent> overflow = new Queue<>(16);
+        // only changed while holding the overflow lock, read without it
+        volatile int overflowSize;
+
+        Lane(int capacity, boolean neverDrop) {
+            events = new RingBuffer<>(capacity);
+            this.neverDrop = neverDrop;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Sequences given to events when they are queued, and how far they are resolved - delivered, rejected or dropped.
+ * Events are resolved out of order, as lanes are sent by priority and batches are retried, so the sequences resolved
+ * ahead of a pending one are kept until it is resolved as well. Flushes wait for all sequences up to the last one
+ * queued before them.
+ */
+final class QueueSequences {
+    private final AtomicLongs last = new AtomicLongs(1);
+    // all sequences up to this one are resolved
+    private long resolvedUpTo;
+    // ring of bits for the sequences after resolvedUpTo, set if resolved. Grows if a sequence stays pending for long
+    private long[] resolvedAhead = new long[1024];
+    // bit of resolvedUpTo + 1
+    private int firstBit;
+
+    /**
+     * @return the sequence for an event being queued, starting at 1
+     */
+    long next() {
+        return last.incrementAndGet(0);
+    }
+
+    /**
+     * @return the sequence given to the last event queued, 0 if none
+     */
+    long getLast() {
+        return last.get(0);
+    }
+
+    synchronized long getResolvedUpTo() {
+        return resolvedUpTo;
+    }
+
+    synchronized void resolved(long sequence) {
+        long offset = sequence - resolvedUpTo - 1;
+        if (offset < 0)
+            return;
+        while (offset >= resolvedAhead.length * 64L)
+            grow();
+        setBit((int) (firstBit + offset));
+
+        int bitMask = resolvedAhead.length * 64 - 1;
+        while (isBitSet(firstBit)) {
+            clearBit(firstBit);
+            firstBit = (firstBit + 1) & bitMask;
+            resolvedUpTo++;
+        }
+    }
+
+    private void grow() {
+        long[] former = resolvedAhead;
+        int formerMask = former.length * 64 - 1;
+        resolvedAhead = new long[former.length * 2];
+        for (int i = 0; i <= formerMask; i++) {
+            int bit = (firstBit + i) & formerMask;
+            if ((former[bit >>> 6] & 1L << (bit & 63)) != 0)
+                setBit(i);
+        }
+        firstBit = 0;
+    }
+
+    private void setBit(int bit) {
+        bit &= resolvedAhead.length * 64 - 1;
+        resolvedAhead[bit >>> 6] |= 1L << (bit & 63);
+    }
+
+    private void clearBit(int bit) {
+        resolvedAhead[bit >>> 6] &= ~(1L << (bit & 63));
+    }
+
+    private boolean isBitSet(int bit) {
+        return (resolvedAhead[bit >>> 6] & 1L << (bit & 63)) != 0;
+    }
+}
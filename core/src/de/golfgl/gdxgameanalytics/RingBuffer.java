@@ -0,0 +1,106 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * Bounded lock-free queue (Dmitry Vyukov's bounded MPMC queue). Threads offering or polling never block each other,
+ * so submitting events from render, audio and network threads does not contend with a flush draining the queue.
+ * <p>
+ * Every slot has a sequence number telling whether it is ready to be written or read in the current lap. Producers
+ * and consumers claim a position by CAS and publish the slot by advancing its sequence number.
+ * <p>
+ * Offering and polling never allocate.
+ */
+class RingBuffer<T> {
+    private final int mask;
+    private final Object[] elements;
+    private final AtomicLongs sequences;
+    // separate instances, so producers and consumers do not write to the same cache line
+    private final AtomicLongs enqueuePos = new AtomicLongs(1);
+    private final AtomicLongs dequeuePos = new AtomicLongs(1);
+
+    /**
+     * @param capacity is rounded up to the next power of two
+     */
+    RingBuffer(int capacity) {
+        int size = 2;
+        while (size < capacity)
+            size <<= 1;
+
+        mask = size - 1;
+        elements = new Object[size];
+        sequences = new AtomicLongs(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * @return false if the buffer is full
+     */
+    boolean offer(T element) {
+        long pos = enqueuePos.get(0);
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (enqueuePos.compareAndSet(0, pos, pos + 1))
+                    break;
+                pos = enqueuePos.get(0);
+            } else if (diff < 0)
+                return false;
+            else
+                pos = enqueuePos.get(0);
+        }
+
+        elements[index] = element;
+        // publish the element to consumers
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * @return the oldest element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    T poll() {
+        long pos = dequeuePos.get(0);
+        int index;
+        while (true) {
+            index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (dequeuePos.compareAndSet(0, pos, pos + 1))
+                    break;
+                pos = dequeuePos.get(0);
+            } else if (diff < 0)
+                return null;
+            else
+                pos = dequeuePos.get(0);
+        }
+
+        T element = (T) elements[index];
+        elements[index] = null;
+        // free the slot for the producer's next lap
+        sequences.lazySet(index, pos + mask + 1);
+        return element;
+    }
+
+    /**
+     * @return number of elements. Only a snapshot when other threads are offering or polling
+     */
+    int size() {
+        while (true) {
+            long dequeued = dequeuePos.get(0);
+            long enqueued = enqueuePos.get(0);
+            if (dequeued == dequeuePos.get(0))
+                return (int) Math.max(0, Math.min(enqueued - dequeued, elements.length));
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return elements.length;
+    }
+}
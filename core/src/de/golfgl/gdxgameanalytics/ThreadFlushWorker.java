@@ -0,0 +1,49 @@
+package de.golfgl.gdxgameanalytics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link FlushWorker} backed by a single daemon thread. Not available on GWT (excluded in gwt.xml)
+ */
+class ThreadFlushWorker implements FlushWorker {
+    private final ExecutorService executor;
+
+    ThreadFlushWorker() {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "GameAnalytics flush");
+                // must not keep the application alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("Flush worker already disposed", e);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    GwtIncompatibleStuff.disposeThreadResources();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // already disposed
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,15 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Net;
+
+/**
+ * Sends the init and events requests. The default sends with {@link com.badlogic.gdx.Gdx#net}, implement this to
+ * use another HTTP client, or to send nowhere in tests.
+ * <p>
+ * Requests are complete when handed over: url, headers and the compressed and signed content are set. Requests are
+ * handed over on the flush worker, the listener may be called on any thread.
+ */
+public interface Transport {
+
+    void sendHttpRequest(Net.HttpRequest request, Net.HttpResponseListener listener);
+}
@@ -0,0 +1,123 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.backends.headless.HeadlessPreferences;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.IntSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+public class CounterStoreTest {
+    private File file;
+    private CountingPreferences prefs;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("gdxgameanalytics", ".prefs");
+        file.delete();
+        prefs = new CountingPreferences(new FileHandle(file));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testNumbersFromReservedBlock() {
+        CounterStore store = new CounterStore(prefs, "counter", 10);
+        Assert.assertTrue(store.isReserveNeeded());
+        store.reserve();
+        Assert.assertEquals(1, prefs.flushes);
+        Assert.assertEquals(10, prefs.getInteger("counter"));
+
+        for (int i = 1; i <= 5; i++)
+            Assert.assertEquals(i, store.next());
+        Assert.assertFalse(store.isReserveNeeded());
+        // half of the block is used, the next one is reserved in background
+        Assert.assertEquals(6, store.next());
+        Assert.assertTrue(store.isReserveNeeded());
+        Assert.assertEquals(1, prefs.flushes);
+
+        store.reserve();
+        Assert.assertEquals(20, prefs.getInteger("counter"));
+        for (int i = 7; i <= 14; i++)
+            Assert.assertEquals(i, store.next());
+        Assert.assertEquals(2, prefs.flushes);
+    }
+
+    @Test
+    public void testExhaustedBlockWrittenOnCallingThread() {
+        CounterStore store = new CounterStore(prefs, "counter", 10);
+        Assert.assertEquals(1, store.next());
+        Assert.assertEquals(1, prefs.flushes);
+        Assert.assertEquals(10, prefs.getInteger("counter"));
+    }
+
+    @Test
+    public void testNumbersNeverReusedAfterRestart() {
+        prefs.putInteger("counter", 7);
+        CounterStore store = new CounterStore(prefs, "counter", 10);
+        Assert.assertEquals(8, store.next());
+        Assert.assertEquals(9, store.next());
+
+        // process killed, the reserved rest of the block is skipped
+        CountingPreferences reloaded = new CountingPreferences(new FileHandle(file));
+        CounterStore restarted = new CounterStore(reloaded, "counter", 10);
+        Assert.assertEquals(18, restarted.next());
+    }
+
+    @Test
+    public void testConcurrentNext() throws InterruptedException {
+        final CounterStore store = new CounterStore(prefs, "counter", 16);
+        final int threads = 4;
+        final int perThread = 1000;
+        final int[][] numbers = new int[threads][perThread];
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        numbers[thread][i] = store.next();
+                        if (store.isReserveNeeded())
+                            store.reserve();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        IntSet seen = new IntSet();
+        for (int[] threadNumbers : numbers) {
+            for (int i = 0; i < perThread; i++) {
+                Assert.assertTrue(seen.add(threadNumbers[i]));
+                if (i > 0)
+                    Assert.assertTrue(threadNumbers[i] > threadNumbers[i - 1]);
+            }
+        }
+        Assert.assertTrue(prefs.getInteger("counter") >= threads * perThread);
+    }
+
+    private static class CountingPreferences extends HeadlessPreferences {
+        int flushes;
+
+        CountingPreferences(FileHandle file) {
+            super(file);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+            super.flush();
+        }
+    }
+}
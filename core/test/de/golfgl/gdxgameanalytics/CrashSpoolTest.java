@@ -0,0 +1,77 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class CrashSpoolTest {
+    private FileHandle file;
+
+    @Before
+    public void setUp() throws IOException {
+        File tempFile = File.createTempFile("gdxgameanalytics", ".spool");
+        tempFile.delete();
+        file = new FileHandle(tempFile);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRemovedWhenAllAcknowledged() throws IOException {
+        CrashSpool spool = new CrashSpool(file);
+        Assert.assertEquals(0, spool.upload(new RecordCollector()));
+
+        spool.write("{\"message\":\"first\"}");
+        spool.write("{\"message\":\"second\"}");
+
+        // a new process reads the spool
+        spool = new CrashSpool(file);
+        RecordCollector collector = new RecordCollector();
+        Assert.assertEquals(2, spool.upload(collector));
+        Assert.assertEquals("{\"message\":\"first\"}", collector.records.get(0));
+        Assert.assertEquals("{\"message\":\"second\"}", collector.records.get(1));
+
+        // not handed out twice while pending
+        Assert.assertEquals(0, spool.upload(new RecordCollector()));
+
+        spool.acknowledge();
+        Assert.assertTrue(file.exists());
+        spool.acknowledge();
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(0, spool.getPendingEvents());
+    }
+
+    @Test
+    public void testCrashDuringUploadKept() throws IOException {
+        CrashSpool spool = new CrashSpool(file);
+        spool.write("{\"message\":\"first\"}");
+        Assert.assertEquals(1, spool.upload(new RecordCollector()));
+
+        spool.write("{\"message\":\"second\"}");
+        spool.acknowledge();
+        Assert.assertTrue(file.exists());
+
+        RecordCollector collector = new RecordCollector();
+        Assert.assertEquals(1, spool.upload(collector));
+        Assert.assertEquals("{\"message\":\"second\"}", collector.records.get(0));
+    }
+
+    private static class RecordCollector implements CrashSpool.RecordConsumer {
+        final Array<String> records = new Array<>();
+
+        @Override
+        public void consume(String record) {
+            records.add(record);
+        }
+    }
+}
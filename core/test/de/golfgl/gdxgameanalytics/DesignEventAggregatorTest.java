@@ -0,0 +1,50 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.ObjectFloatMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DesignEventAggregatorTest {
+
+    @Test
+    public void testSummaries() {
+        DesignEventAggregator aggregator = new DesignEventAggregator(2);
+        Assert.assertTrue(aggregator.add("kill:robot", 3));
+        Assert.assertTrue(aggregator.add("kill:robot", -1));
+        Assert.assertTrue(aggregator.add("kill:robot", 4));
+        Assert.assertTrue(aggregator.add("kill:alien", 10));
+        // capacity exhausted
+        Assert.assertFalse(aggregator.add("kill:ghost", 1));
+
+        Assert.assertEquals(3f, drain(aggregator, GameAnalytics.AggregatedValue.Count).get("kill:robot", 0), 0);
+        // window was reset by draining
+        Assert.assertEquals(0, drain(aggregator, GameAnalytics.AggregatedValue.Count).size);
+
+        GameAnalytics.AggregatedValue[] aggregatedValues = {GameAnalytics.AggregatedValue.Sum,
+                GameAnalytics.AggregatedValue.Min, GameAnalytics.AggregatedValue.Max,
+                GameAnalytics.AggregatedValue.Mean};
+        float[] expected = {6f, -1f, 4f, 2f};
+        for (int i = 0; i < aggregatedValues.length; i++) {
+            aggregator.add("kill:robot", 3);
+            aggregator.add("kill:robot", -1);
+            aggregator.add("kill:robot", 4);
+            ObjectFloatMap<String> summaries = drain(aggregator, aggregatedValues[i]);
+            Assert.assertEquals(1, summaries.size);
+            Assert.assertEquals(aggregatedValues[i].toString(), expected[i], summaries.get("kill:robot", 0), 0.0001f);
+        }
+    }
+
+    private static ObjectFloatMap<String> drain(DesignEventAggregator aggregator,
+                                                GameAnalytics.AggregatedValue aggregatedValue) {
+        final ObjectFloatMap<String> summaries = new ObjectFloatMap<>();
+        aggregator.drain(aggregatedValue, new DesignEventAggregator.SummaryConsumer() {
+            @Override
+            public void consume(String eventId, float value) {
+                Assert.assertFalse(summaries.containsKey(eventId));
+                summaries.put(eventId, value);
+            }
+        });
+        return summaries;
+    }
+}
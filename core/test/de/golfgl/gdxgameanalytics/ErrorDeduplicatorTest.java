@@ -0,0 +1,98 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ErrorDeduplicatorTest {
+
+    @Test
+    public void testFingerprint() {
+        String trace = "java.lang.IllegalStateException: index 3\n" +
+                "\tat com.example.Game.render(Game.java:42)\n" +
+                "\tat com.badlogic.gdx.backends.lwjgl.LwjglApplication.mainLoop(LwjglApplication.java:225)\n" +
+                "Caused by: java.lang.ArithmeticException: / by zero\n" +
+                "\tat com.example.Game.divide(Game.java:17)\n" +
+                "\t... 2 more";
+        String otherMessageAndLines = "java.lang.IllegalStateException: index 7\n" +
+                "\tat com.example.Game.render(Game.java:44)\n" +
+                "\tat com.badlogic.gdx.backends.lwjgl.LwjglApplication.mainLoop(LwjglApplication.java:225)\n" +
+                "Caused by: java.lang.ArithmeticException: / by zero\n" +
+                "\tat com.example.Game.divide(Game.java:18)\n" +
+                "\t... 2 more";
+        String otherFrame = trace.replace("Game.render", "Game.update");
+
+        long fingerprint = ErrorDeduplicator.fingerprint("error", trace);
+        Assert.assertEquals(fingerprint, ErrorDeduplicator.fingerprint("error", otherMessageAndLines));
+        Assert.assertNotEquals(fingerprint, ErrorDeduplicator.fingerprint("error", otherFrame));
+        Assert.assertNotEquals(fingerprint, ErrorDeduplicator.fingerprint("critical", trace));
+
+        // without frames, the message is taken as is
+        Assert.assertEquals(ErrorDeduplicator.fingerprint("error", "Failed to load level 3"),
+                ErrorDeduplicator.fingerprint("error", "Failed to load level 3"));
+        Assert.assertNotEquals(ErrorDeduplicator.fingerprint("error", "Failed to load level 3"),
+                ErrorDeduplicator.fingerprint("error", "Failed to load level 12"));
+        Assert.assertNotEquals(ErrorDeduplicator.fingerprint("error", "timeout after 30 s"),
+                ErrorDeduplicator.fingerprint("error", "no connection"));
+
+        // digits in exception class names are kept
+        Assert.assertNotEquals(fingerprint, ErrorDeduplicator.fingerprint("error",
+                trace.replace("IllegalStateException", "IllegalStateException2")));
+    }
+
+    @Test
+    public void testCompact() {
+        StringBuilder trace = new StringBuilder("java.lang.StackOverflowError\n");
+        for (int i = 0; i < 500; i++)
+            trace.append("\tat com.example.Tree.visit(Tree.java:10)\n\tat com.example.Node.accept(Node.java:20)\n");
+        trace.append("\tat com.example.Game.render(Game.java:42)\n");
+        trace.append("Caused by: java.lang.RuntimeException: wrapped\n");
+        trace.append("\tat com.example.Game.render(Game.java:42)\n");
+        trace.append("Caused by: java.lang.RuntimeException: wrapped again\n");
+        trace.append("\tat com.example.Game.render(Game.java:42)");
+
+        Assert.assertEquals("java.lang.StackOverflowError\n" +
+                "\tat com.example.Tree.visit(Tree.java:10)\n" +
+                "\tat com.example.Node.accept(Node.java:20)\n" +
+                "\t... 2 frames repeated 499 times\n" +
+                "\tat com.example.Game.render(Game.java:42)\n" +
+                "Caused by: java.lang.RuntimeException: wrapped\n" +
+                "\tat com.example.Game.render(Game.java:42)\n" +
+                "Caused by: java.lang.RuntimeException: wrapped again\n" +
+                "\t... same trace as above", ErrorDeduplicator.compact(trace.toString()));
+
+        Assert.assertEquals("no trace", ErrorDeduplicator.compact("no trace"));
+    }
+
+    @Test
+    public void testRegisterAndDrain() {
+        ErrorDeduplicator deduplicator = new ErrorDeduplicator(2);
+        Assert.assertTrue(deduplicator.register(1, "error", "one"));
+        Assert.assertFalse(deduplicator.register(1, "error", "one"));
+        Assert.assertFalse(deduplicator.register(1, "error", "one"));
+        Assert.assertTrue(deduplicator.register(2, "error", "two"));
+        // capacity exhausted, not deduplicated
+        Assert.assertTrue(deduplicator.register(3, "error", "three"));
+        Assert.assertTrue(deduplicator.register(3, "error", "three"));
+
+        final Array<String> summaries = new Array<>();
+        ErrorDeduplicator.SummaryConsumer consumer = new ErrorDeduplicator.SummaryConsumer() {
+            @Override
+            public void consume(String severity, String message, int repeats) {
+                summaries.add(message + " " + repeats);
+            }
+        };
+        deduplicator.drain(consumer);
+        Assert.assertEquals(1, summaries.size);
+        Assert.assertEquals("one 2", summaries.first());
+
+        // recurring error stays deduplicated, the other one was forgotten
+        Assert.assertFalse(deduplicator.register(1, "error", "one"));
+        Assert.assertTrue(deduplicator.register(2, "error", "two"));
+        summaries.clear();
+        deduplicator.drain(consumer);
+        Assert.assertEquals("one 1", summaries.first());
+        Assert.assertEquals(1, summaries.size);
+    }
+}
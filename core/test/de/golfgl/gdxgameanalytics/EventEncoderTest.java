@@ -0,0 +1,70 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+
+public class EventEncoderTest {
+
+    @Test
+    public void testEscapingAndUtf8() throws UnsupportedEncodingException {
+        String message = "Quote \" backslash \\ newline \n tab \t control \u0001 umlaut \u00e4 euro \u20ac " +
+                "emoji \ud83d\ude00";
+
+        EventEncoder encoder = new EventEncoder(8);
+        encoder.beginArray();
+        encoder.beginObject();
+        encoder.field("message", message);
+        encoder.field("event_id", new String[]{"Start", "World1", "Level\u00e4"}, 3);
+        encoder.field("client_ts", 1525600000L);
+        encoder.field("negative", -42);
+        encoder.field("value", 100f);
+        encoder.field("amount", 10.5f);
+        encoder.endObject();
+        encoder.beginObject();
+        encoder.endObject();
+        encoder.endArray();
+
+        String json = new String(encoder.getBytes(), 0, encoder.size(), "UTF-8");
+        Assert.assertTrue(json, json.contains("control \\u0001 umlaut"));
+        Assert.assertTrue(json, json.contains("\"value\":100,"));
+
+        JsonValue parsed = new JsonReader().parse(json);
+        Assert.assertEquals(2, parsed.size);
+        JsonValue event = parsed.get(0);
+        Assert.assertEquals(message, event.getString("message"));
+        Assert.assertEquals("Start:World1:Level\u00e4", event.getString("event_id"));
+        Assert.assertEquals(1525600000L, event.getLong("client_ts"));
+        Assert.assertEquals(-42, event.getInt("negative"));
+        Assert.assertEquals(10.5f, event.getFloat("amount"), 0f);
+
+        // same bytes as the JDK encoder produces
+        String expectedEmoji = new String("\ud83d\ude00".getBytes("UTF-8"), "ISO-8859-1");
+        Assert.assertTrue(new String(encoder.getBytes(), 0, encoder.size(), "ISO-8859-1").contains(expectedEmoji));
+
+        encoder.reset();
+        Assert.assertEquals(0, encoder.size());
+    }
+
+    @Test
+    public void testEscapedValue() throws UnsupportedEncodingException {
+        String value = "Level \"\u00e4\" \ud83d\ude00";
+        EventEncoder encoder = new EventEncoder(8);
+        encoder.beginObject();
+        encoder.field("event_id", EventEncoder.escape(value));
+        encoder.endObject();
+
+        String json = new String(encoder.getBytes(), 0, encoder.size(), "UTF-8");
+        Assert.assertEquals(value, new JsonReader().parse(json).getString("event_id"));
+
+        EventEncoder escapingEncoder = new EventEncoder(8);
+        escapingEncoder.beginObject();
+        escapingEncoder.field("event_id", value);
+        escapingEncoder.endObject();
+        Assert.assertEquals(new String(escapingEncoder.getBytes(), 0, escapingEncoder.size(), "UTF-8"), json);
+    }
+}
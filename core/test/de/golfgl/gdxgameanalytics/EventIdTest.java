@@ -0,0 +1,58 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventIdTest {
+
+    @Test
+    public void testValidIds() {
+        Assert.assertEquals("kill:robot:blue", GameAnalytics.designEvent("kill:robot:blue").toString());
+        Assert.assertEquals("a:b:c:d:e", GameAnalytics.designEvent("a:b:c:d:e").toString());
+        Assert.assertEquals("Tutorial (step 1)!", GameAnalytics.designEvent("Tutorial (step 1)!").toString());
+        Assert.assertEquals("Fail:World1", GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Fail,
+                "World1", "", "").toString());
+        Assert.assertEquals("Sink:gold:Weapons:Sword_2", GameAnalytics.resourceEvent(
+                GameAnalytics.ResourceFlowType.Sink, "gold", "Weapons", "Sword_2").toString());
+
+        EventId eventId = GameAnalytics.designEvent("kill:robot:blue");
+        Assert.assertEquals(AnnotatedEvent.CATEGORY_DESIGN, eventId.getCategory());
+        Assert.assertArrayEquals("kill:robot:blue".getBytes(), eventId.encoded);
+    }
+
+    @Test
+    public void testInvalidIds() {
+        assertInvalidDesignEvent("");
+        assertInvalidDesignEvent("kill::blue");
+        assertInvalidDesignEvent("kill:robot:");
+        assertInvalidDesignEvent("a:b:c:d:e:f");
+        assertInvalidDesignEvent("kill:robotä");
+        assertInvalidDesignEvent("kill:\"robot\"");
+        StringBuilder tooLong = new StringBuilder();
+        for (int i = 0; i <= EventId.MAX_PART_LENGTH; i++)
+            tooLong.append('x');
+        assertInvalidDesignEvent(tooLong.toString());
+
+        try {
+            GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Start, "World:1");
+            Assert.fail("Colon accepted in a progression level");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Start, "1", "2", "3", "4");
+            Assert.fail("Four progression levels accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertInvalidDesignEvent(String eventId) {
+        try {
+            GameAnalytics.designEvent(eventId);
+            Assert.fail("Invalid event id accepted: " + eventId);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.LongArray;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class EventJournalTest {
+    private static final String SESSION_ID = "0f4a8c2e-6a3b-4c1d-9e8f-7a6b5c4d3e2f";
+    private static final long CLIENT_TS = 1700000000L;
+
+    private FileHandle file;
+
+    @BeforeClass
+    public static void init() {
+        if (Gdx.app == null)
+            Gdx.app = new HeadlessApplication(new ApplicationAdapter() {
+            });
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        File tempFile = File.createTempFile("gdxgameanalytics", ".journal");
+        tempFile.delete();
+        file = new FileHandle(tempFile);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testReplayPendingEvents() {
+        EventJournal journal = new EventJournal(file);
+        Assert.assertEquals(0, journal.replay(new EventCollector()));
+
+        Array<AnnotatedEvent> events = new Array<>();
+        AnnotatedEvent design = newEvent(AnnotatedEvent.CATEGORY_DESIGN, 0);
+        design.setEventId(GameAnalytics.designEvent("kill:robot:blue"));
+        design.setValue(1.5f);
+        events.add(design);
+        AnnotatedEvent progression = newEvent(AnnotatedEvent.CATEGORY_PROGRESSION, 3);
+        progression.addEventIdPart("Complete");
+        progression.addEventIdPart("world01");
+        progression.addEventIdPart("level01");
+        progression.setScore(-20);
+        progression.setAttemptNum(2);
+        events.add(progression);
+        AnnotatedEvent business = newEvent(AnnotatedEvent.CATEGORY_BUSINESS, 5);
+        business.addEventIdPart("boost");
+        business.addEventIdPart("boost01");
+        business.currency = "USD";
+        business.setAmount(99);
+        business.setTransactionNum(7);
+        events.add(business);
+        AnnotatedEvent resource = newEvent(AnnotatedEvent.CATEGORY_RESOURCE, 8);
+        resource.addEventIdPart("Sink");
+        resource.addEventIdPart("gems");
+        resource.addEventIdPart("shop");
+        resource.addEventIdPart("sword");
+        resource.setFloatAmount(12.25f);
+        events.add(resource);
+        AnnotatedEvent error = newEvent(AnnotatedEvent.CATEGORY_ERROR, -2);
+        error.severity = "warning";
+        error.message = "Texture missing: \"tile\" ü";
+        events.add(error);
+        AnnotatedEvent sessionEnd = newEvent(AnnotatedEvent.CATEGORY_SESSION_END, 60);
+        sessionEnd.setLength(60);
+        events.add(sessionEnd);
+
+        LongArray seqs = new LongArray();
+        for (AnnotatedEvent event : events)
+            seqs.add(journal.append(event));
+        journal.acknowledge(seqs.get(1));
+        journal.sync();
+
+        EventCollector collector = new EventCollector();
+        Assert.assertEquals(5, new EventJournal(file).replay(collector));
+        events.removeIndex(1);
+        seqs.removeIndex(1);
+        for (int i = 0; i < events.size; i++) {
+            Assert.assertEquals(seqs.get(i), collector.seqs.get(i));
+            Assert.assertEquals(toJson(events.get(i)), toJson(collector.events.get(i)));
+        }
+    }
+
+    @Test
+    public void testAppendAfterReplay() {
+        EventJournal journal = new EventJournal(file);
+        journal.replay(new EventCollector());
+        long first = journal.append(newDesignEvent("kill:robot:blue", 0));
+        journal.sync();
+
+        // a new process continues the file, reusing the string and session indices
+        journal = new EventJournal(file);
+        Assert.assertEquals(1, journal.replay(new EventCollector()));
+        long second = journal.append(newDesignEvent("kill:robot:blue", 1));
+        Assert.assertTrue(second > first);
+        journal.append(newDesignEvent("kill:robot:red", 2));
+        journal.acknowledge(first);
+        journal.sync();
+
+        EventCollector collector = new EventCollector();
+        Assert.assertEquals(2, new EventJournal(file).replay(collector));
+        Assert.assertEquals(second, collector.seqs.get(0));
+        Assert.assertEquals(toJson(newDesignEvent("kill:robot:blue", 1)), toJson(collector.events.get(0)));
+        Assert.assertEquals(toJson(newDesignEvent("kill:robot:red", 2)), toJson(collector.events.get(1)));
+    }
+
+    @Test
+    public void testDeletedWhenAllAcknowledged() {
+        EventJournal journal = new EventJournal(file);
+        journal.replay(new EventCollector());
+        journal.acknowledge(journal.append(newDesignEvent("kill:robot:blue", 0)));
+        journal.sync();
+        Assert.assertFalse(file.exists());
+
+        // starts a new file with its own strings
+        journal.append(newDesignEvent("kill:robot:blue", 1));
+        journal.sync();
+        EventCollector collector = new EventCollector();
+        Assert.assertEquals(1, new EventJournal(file).replay(collector));
+        Assert.assertEquals(toJson(newDesignEvent("kill:robot:blue", 1)), toJson(collector.events.get(0)));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        EventJournal journal = new EventJournal(file);
+        journal.replay(new EventCollector());
+        long kept = 0;
+        for (int i = 0; i < 1000; i++) {
+            long seq = journal.append(newDesignEvent(i % 2 == 0 ? "kill:robot:blue" : "kill:robot:red", i));
+            if (i == 500)
+                kept = seq;
+            else
+                journal.acknowledge(seq);
+        }
+        journal.sync();
+        long formerLength = file.length();
+
+        journal.compact();
+        Assert.assertTrue(file.length() < formerLength / 100);
+
+        // appending continues with the same indices
+        journal.append(newDesignEvent("kill:robot:red", 1000));
+        journal.sync();
+
+        EventCollector collector = new EventCollector();
+        Assert.assertEquals(2, new EventJournal(file).replay(collector));
+        Assert.assertEquals(kept, collector.seqs.get(0));
+        Assert.assertEquals(toJson(newDesignEvent("kill:robot:blue", 500)), toJson(collector.events.get(0)));
+        Assert.assertEquals(toJson(newDesignEvent("kill:robot:red", 1000)), toJson(collector.events.get(1)));
+    }
+
+    @Test
+    public void testConcurrentSyncs() throws InterruptedException {
+        final EventJournal journal = new EventJournal(file);
+        journal.replay(new EventCollector());
+
+        // like a flush worker running jobs on threads of their own, compacting on the way
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 8000; i++) {
+                        long seq = journal.append(newDesignEvent("kill:robot:blue", i));
+                        if (i % 100 != 0)
+                            journal.acknowledge(seq);
+                        if (i % 50 == 0)
+                            journal.sync();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        journal.sync();
+
+        Assert.assertEquals(threads.length * 80, new EventJournal(file).replay(new EventCollector()));
+    }
+
+    @Test
+    public void testIncompleteRecordSkipped() {
+        EventJournal journal = new EventJournal(file);
+        journal.replay(new EventCollector());
+        journal.append(newDesignEvent("kill:robot:blue", 0));
+        journal.append(newDesignEvent("kill:robot:red", 1));
+        journal.sync();
+
+        // killed while writing the last record
+        byte[] content = file.readBytes();
+        file.writeBytes(content, 0, content.length - 3, false);
+
+        journal = new EventJournal(file);
+        Assert.assertEquals(1, journal.replay(new EventCollector()));
+        journal.append(newDesignEvent("kill:robot:red", 2));
+        journal.sync();
+
+        EventCollector collector = new EventCollector();
+        Assert.assertEquals(2, new EventJournal(file).replay(collector));
+        Assert.assertEquals(toJson(newDesignEvent("kill:robot:red", 2)), toJson(collector.events.get(1)));
+    }
+
+    @Test
+    public void testFootprint() {
+        EventJournal journal = new EventJournal(file);
+        journal.replay(new EventCollector());
+        for (int i = 0; i < 1000; i++) {
+            AnnotatedEvent event = newDesignEvent("kill:robot:blue", i);
+            event.setValue(i);
+            journal.append(event);
+        }
+        journal.sync();
+
+        // json representation is about 150 bytes
+        Assert.assertTrue("Bytes per event: " + file.length() / 1000, file.length() < 1000 * 16);
+    }
+
+    private static AnnotatedEvent newEvent(String category, int secondsLater) {
+        return new AnnotatedEvent().set(category, CLIENT_TS + secondsLater, SESSION_ID, 3);
+    }
+
+    private static AnnotatedEvent newDesignEvent(String eventId, int secondsLater) {
+        AnnotatedEvent event = newEvent(AnnotatedEvent.CATEGORY_DESIGN, secondsLater);
+        event.setEventId(eventId);
+        return event;
+    }
+
+    private static String toJson(AnnotatedEvent event) {
+        EventEncoder encoder = new EventEncoder(256);
+        encoder.beginObject();
+        event.writeFields(encoder);
+        encoder.endObject();
+        return GwtIncompatibleStuff.decodeUtf8(encoder.getBytes(), encoder.size());
+    }
+
+    private static class EventCollector implements EventJournal.EventConsumer {
+        final Array<AnnotatedEvent> events = new Array<>();
+        final LongArray seqs = new LongArray();
+
+        @Override
+        public AnnotatedEvent obtain() {
+            return new AnnotatedEvent();
+        }
+
+        @Override
+        public void consume(long seq, AnnotatedEvent event) {
+            seqs.add(seq);
+            events.add(event);
+        }
+    }
+}
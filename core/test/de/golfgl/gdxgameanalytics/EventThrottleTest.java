@@ -0,0 +1,51 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventThrottleTest {
+
+    @Test
+    public void testSampling() {
+        EventThrottle throttle = new EventThrottle(2);
+        throttle.setSamplingRate(0, 0.25f);
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++)
+            if (throttle.accept(0))
+                accepted++;
+
+        Assert.assertEquals(25, accepted);
+        Assert.assertEquals(75, throttle.getShedCount(0));
+        // other categories are not affected
+        Assert.assertTrue(throttle.accept(1));
+        Assert.assertEquals(0, throttle.getShedCount(1));
+
+        throttle.setSamplingRate(0, 1f);
+        Assert.assertTrue(throttle.accept(0));
+    }
+
+    @Test
+    public void testRateLimit() throws InterruptedException {
+        EventThrottle throttle = new EventThrottle(1);
+        // one event every 100 ms, five at once
+        throttle.setRateLimit(0, 10, 5);
+
+        int accepted = 0;
+        for (int i = 0; i < 100; i++)
+            if (throttle.accept(0))
+                accepted++;
+        Assert.assertEquals(5, accepted);
+        Assert.assertEquals(95, throttle.getShedCount(0));
+
+        Thread.sleep(250);
+        accepted = 0;
+        for (int i = 0; i < 100; i++)
+            if (throttle.accept(0))
+                accepted++;
+        Assert.assertTrue(accepted >= 2 && accepted <= 3);
+
+        throttle.setRateLimit(0, 0, 0);
+        Assert.assertTrue(throttle.accept(0));
+    }
+}
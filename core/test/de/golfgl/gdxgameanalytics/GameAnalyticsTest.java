@@ -3,15 +3,27 @@ package de.golfgl.gdxgameanalytics;
 import com.badlogic.gdx.Application;
 import com.badlogic.gdx.ApplicationListener;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Net;
+import com.badlogic.gdx.Preferences;
 import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessPreferences;
+import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.net.NetJavaImpl;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.JsonValue;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.Mockito;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Benjamin Schulte on 05.05.2018.
@@ -19,6 +31,13 @@ import java.util.Date;
 public class GameAnalyticsTest {
     private static final String KEY_SANDBOX_GAME = "5c6bcb5402204249437fb5a7a80a4959";
     private static final String KEY_SANDBOX_SECRET = "16813a12f718bc5c620f56944e1abc3ea13ccbac";
+    private static final EventId KILL_ROBOT = GameAnalytics.designEvent("kill:robot:red");
+    private static final EventId ARENA_COMPLETE = GameAnalytics.progressionEvent(
+            GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2");
+    private static final EventId GOLD_SOURCE = GameAnalytics.resourceEvent(GameAnalytics.ResourceFlowType.Source,
+            "gold", "Consumable", "Mana potion");
+
+    private final Array<GameAnalytics> instances = new Array<>();
 
     @BeforeClass
     public static void init() {
@@ -56,57 +75,688 @@ public class GameAnalyticsTest {
         Gdx.app.setLogLevel(Application.LOG_DEBUG);
     }
 
+    @After
+    public void tearDown() {
+        for (GameAnalytics ga : instances)
+            ga.dispose();
+        instances.clear();
+    }
+
     @Test
-    public void testGameAnalytics() throws InterruptedException {
-        GameAnalytics ga = new GameAnalytics();
+    public void testGameAnalytics() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = new GameAnalytics();
+            instances.add(ga);
 
-        ga.url = GameAnalytics.URL_SANDBOX;
-        ga.setGameKey(KEY_SANDBOX_GAME);
-        ga.setGameSecretKey(KEY_SANDBOX_SECRET);
+            ga.url = server.getUrl();
+            ga.setGameKey(KEY_SANDBOX_GAME);
+            ga.setGameSecretKey(KEY_SANDBOX_SECRET);
 
-        ga.setPlatform(GameAnalytics.Platform.Windows);
-        Assert.assertTrue(ga.setPlatformVersionString("1"));
-        Assert.assertFalse(ga.setPlatformVersionString("10.x"));
-        Assert.assertTrue(ga.setPlatformVersionString("10.2.3"));
-        ga.setGameBuildNumber("1");
+            ga.setPlatform(GameAnalytics.Platform.Windows);
+            Assert.assertTrue(ga.setPlatformVersionString("1"));
+            Assert.assertFalse(ga.setPlatformVersionString("10.x"));
+            Assert.assertTrue(ga.setPlatformVersionString("10.2.3"));
+            ga.setGameBuildNumber("1");
 
-        ga.startSession();
+            startSession(ga);
 
-        Thread.sleep(300);
-        Assert.assertTrue(ga.isInitialized());
+            Gdx.app.log("Test", "Correct time: " + new Date(ga.getCurrentServerTime()).toString());
 
-        Gdx.app.log("Test", "Correct time: " + new Date(ga.getCurrentServerTime()).toString());
+            //Design events
+            ga.submitDesignEvent("kill:robot:blue");
+            ga.submitDesignEvent("Tutorial:Step1:Finished", 100f);
 
-        //Design events
-        ga.submitDesignEvent("kill:robot:blue");
-        ga.submitDesignEvent("Tutorial:Step1:Finished", 100f);
+            //Progression events
+            ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Start, "World1", "", "");
+            ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Fail, "World1", "Level2", "");
+            ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2", 200, 1);
 
-        //Business event
-        //CreateGenericBusinessEvent("Sales:GoodiesPackage", 99, "USD", 1);
-        //Business event for Google
-        //CreateGenericBusinessEventGoogle("Sales", 99, "USD", 1, "Tier 1", "+Receipt+", "+signature+");
+            //Resource events
+            ga.submitResourceEvent(GameAnalytics.ResourceFlowType.Sink, "gold", "Weapon", "Frostmourne", 10000);
 
-        //Progression events
-        ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Start, "World1", "", "");
-        ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Fail, "World1", "Level2", "");
-        ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2", 200, 1);
+            //Error event
+            ga.submitErrorEvent(GameAnalytics.ErrorType.error, "Ohohoh");
+
+            // Transaction
+            ga.submitBusinessEvent("type", "item", 100, "USD");
+
+            //Finally close session by sending session_end event
+            ga.closeSession();
+
+            Assert.assertTrue(server.awaitEvents(AnnotatedEvent.CATEGORY_SESSION_END, 1, 5000));
+            Assert.assertEquals(1, server.getEventCount(AnnotatedEvent.CATEGORY_USER));
+            Assert.assertEquals(2, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(3, server.getEventCount(AnnotatedEvent.CATEGORY_PROGRESSION));
+            Assert.assertEquals(1, server.getEventCount(AnnotatedEvent.CATEGORY_RESOURCE));
+            Assert.assertEquals(1, server.getEventCount(AnnotatedEvent.CATEGORY_ERROR));
+            Assert.assertEquals(1, server.getEventCount(AnnotatedEvent.CATEGORY_BUSINESS));
+            Assert.assertEquals(0, server.getRejectedCount());
+
+            JsonValue progression = null;
+            for (JsonValue event : server.getEvents())
+                if ("Complete:World2:Level1:Arena2".equals(event.getString("event_id", null)))
+                    progression = event;
+            Assert.assertNotNull(progression);
+            Assert.assertEquals("windows", progression.getString("platform"));
+            Assert.assertEquals("windows 10.2.3", progression.getString("os_version"));
+            Assert.assertEquals(200, progression.getInt("score"));
+            Assert.assertEquals(1, progression.getInt("attempt_num"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSubmitDoesNotAllocate() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        int formerLogLevel = Gdx.app.getLogLevel();
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+
+            // debug logging allocates
+            Gdx.app.setLogLevel(Application.LOG_INFO);
+
+            // fill queue and event pool, and let the JIT settle
+            for (int i = 0; i < 20000; i++)
+                submitEvents(ga);
+
+            com.sun.management.ThreadMXBean threadBean =
+                    (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            int iterations = 10000;
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++)
+                submitEvents(ga);
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            // less than one byte per iteration leaves room for the measurement itself only
+            Assert.assertTrue("Submitting allocated " + allocated + " bytes", allocated < iterations);
+        } finally {
+            Gdx.app.setLogLevel(formerLogLevel);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testEventIdHandles() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+
+            ga.submitDesignEvent(KILL_ROBOT);
+            ga.submitDesignEvent(KILL_ROBOT, 3);
+            ga.submitProgressionEvent(ARENA_COMPLETE, 200, 1);
+            ga.submitProgressionEvent(GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Start,
+                    "World1", "Level2"), 100, 2);
+            ga.submitResourceEvent(GOLD_SOURCE, 7.5f);
+            try {
+                ga.submitDesignEvent(GOLD_SOURCE);
+                Assert.fail("Resource event id submitted as design event");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            Assert.assertTrue(ga.flushQueueImmediately().await(2000));
+
+            Array<JsonValue> design = new Array<>();
+            Array<JsonValue> progression = new Array<>();
+            JsonValue resource = null;
+            for (JsonValue event : server.getEvents()) {
+                String category = event.getString("category");
+                if (AnnotatedEvent.CATEGORY_DESIGN.equals(category))
+                    design.add(event);
+                else if (AnnotatedEvent.CATEGORY_PROGRESSION.equals(category))
+                    progression.add(event);
+                else if (AnnotatedEvent.CATEGORY_RESOURCE.equals(category))
+                    resource = event;
+            }
+            Assert.assertEquals(2, design.size);
+            Assert.assertEquals("kill:robot:red", design.get(0).getString("event_id"));
+            Assert.assertFalse(design.get(0).has("value"));
+            Assert.assertEquals(3, design.get(1).getFloat("value"), 0f);
+
+            Assert.assertEquals(2, progression.size);
+            Assert.assertEquals("Complete:World2:Level1:Arena2", progression.get(0).getString("event_id"));
+            Assert.assertEquals(200, progression.get(0).getInt("score"));
+            Assert.assertEquals(1, progression.get(0).getInt("attempt_num"));
+            // score and attempts are only sent for completed or failed progressions
+            Assert.assertEquals("Start:World1:Level2", progression.get(1).getString("event_id"));
+            Assert.assertFalse(progression.get(1).has("score"));
+
+            Assert.assertEquals("Source:gold:Consumable:Mana potion", resource.getString("event_id"));
+            Assert.assertEquals(7.5f, resource.getFloat("amount"), 0f);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testPlayerSessions() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            int playerCount = 2000;
+            // every player's events are submitted before the first flush
+            GameAnalytics ga = newGameAnalytics(server, new GameAnalytics(playerCount));
+            ga.setOwnSessionEnabled(false);
+            ga.setMaxBatchesInFlight(4);
+            startSession(ga);
+
+            PlayerSession[] players = new PlayerSession[playerCount];
+            for (int i = 0; i < playerCount; i++) {
+                players[i] = ga.openPlayerSession("player" + i, i % 7 + 1);
+                players[i].setCustom1(i % 2 == 0 ? "even" : "odd");
+            }
+            for (int i = 0; i < playerCount; i++) {
+                players[i].submitDesignEvent(KILL_ROBOT);
+                players[i].submitBusinessEvent("Weapons", "Sword", 99, "USD");
+            }
+            for (int i = 0; i < playerCount; i++)
+                players[i].close();
+            // ignored after closing
+            players[0].submitDesignEvent(KILL_ROBOT);
+            Assert.assertTrue(players[0].isClosed());
+            Assert.assertTrue(ga.awaitFlush(10000));
+
+            // none for the instance itself
+            Assert.assertEquals(playerCount, server.getEventCount(AnnotatedEvent.CATEGORY_USER));
+            Assert.assertEquals(playerCount, server.getEventCount(AnnotatedEvent.CATEGORY_SESSION_END));
+            Assert.assertEquals(playerCount, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(playerCount, server.getEventCount(AnnotatedEvent.CATEGORY_BUSINESS));
+
+            for (JsonValue event : server.getEvents()) {
+                int player = Integer.parseInt(event.getString("user_id").substring("player".length()));
+                Assert.assertEquals(players[player].getSessionId(), event.getString("session_id"));
+                Assert.assertEquals(player % 7 + 1, event.getInt("session_num"));
+                Assert.assertEquals(player % 2 == 0 ? "even" : "odd", event.getString("custom_01"));
+                Assert.assertEquals("linux", event.getString("platform"));
+                if (AnnotatedEvent.CATEGORY_BUSINESS.equals(event.getString("category")))
+                    Assert.assertEquals(1, event.getInt("transaction_num"));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRequestsLimitedToMaxSize() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        int formerLogLevel = Gdx.app.getLogLevel();
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            ga.setMaxRequestBytes(20000);
+            startSession(ga);
+            Gdx.app.setLogLevel(Application.LOG_INFO);
+
+            // random messages don't compress well, so 100 of them exceed the maximum request size by far
+            Random random = new Random(42);
+            char[] message = new char[8000];
+            for (int i = 0; i < 100; i++) {
+                for (int j = 0; j < message.length; j++)
+                    message[j] = (char) ('a' + random.nextInt(26));
+                ga.submitErrorEvent(GameAnalytics.ErrorType.warning, new String(message));
+            }
+
+            for (int i = 0; i < 250 && server.getEventCount(AnnotatedEvent.CATEGORY_ERROR) < 100; i++) {
+                ga.flushQueueImmediately();
+                Thread.sleep(20);
+            }
+
+            Assert.assertEquals(100, server.getEventCount(AnnotatedEvent.CATEGORY_ERROR));
+            Assert.assertTrue(server.getLargestRequestBytes() <= 20000);
+        } finally {
+            Gdx.app.setLogLevel(formerLogLevel);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testEventsKeptOnServerError() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+
+            server.failNextRequests(2, 503);
+            for (int i = 0; i < 10; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            flushUntil(ga, server, AnnotatedEvent.CATEGORY_DESIGN, 10);
+
+            Assert.assertEquals(10, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(2, ga.getMetrics().getStatusCodeCount(503));
+            Assert.assertEquals(0, ga.getMetrics().getRejectedEventCount());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testBatchSplitOnPayloadTooLarge() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        int formerLogLevel = Gdx.app.getLogLevel();
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+            Gdx.app.setLogLevel(Application.LOG_INFO);
+
+            // random messages don't compress well, about 1 KB per event
+            server.setMaxBodyBytes(20000);
+            Random random = new Random(42);
+            char[] message = new char[1000];
+            for (int i = 0; i < 100; i++) {
+                for (int j = 0; j < message.length; j++)
+                    message[j] = (char) ('a' + random.nextInt(26));
+                ga.submitErrorEvent(GameAnalytics.ErrorType.warning, new String(message));
+            }
+            flushUntil(ga, server, AnnotatedEvent.CATEGORY_ERROR, 100);
+
+            Assert.assertEquals(100, server.getEventCount(AnnotatedEvent.CATEGORY_ERROR));
+            Assert.assertTrue(ga.getMetrics().getStatusCodeCount(413) > 0);
+            Assert.assertEquals(0, ga.getMetrics().getRejectedEventCount());
+        } finally {
+            Gdx.app.setLogLevel(formerLogLevel);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testOnlyInvalidEventsDropped() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+
+            server.setInvalidEventId("kill:robot:invalid");
+            for (int i = 0; i < 10; i++)
+                ga.submitDesignEvent(i % 5 == 0 ? "kill:robot:invalid" : "kill:robot:blue");
+            flushUntil(ga, server, AnnotatedEvent.CATEGORY_DESIGN, 8);
+
+            Assert.assertEquals(8, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(2, ga.getMetrics().getRejectedEventCount());
+            Assert.assertEquals(1, ga.getMetrics().getStatusCodeCount(400));
+        } finally {
+            server.stop();
+        }
+    }
 
-        //Resource events
-        //CreateResourceEvent(de.golfgl.gdxgameanalytics.GameAnalytics.ResourceFlowType.Sink, "gold", "Weapon", "Frostmourne", 10000);
-        //CreateResourceEvent(de.golfgl.gdxgameanalytics.GameAnalytics.ResourceFlowType.Source, "silver", "Consumable", "Mana potion", 5);
+    @Test
+    public void testBacklogDrainedWithBatchesInFlight() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        int formerLogLevel = Gdx.app.getLogLevel();
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            ga.setTransport(new ConcurrentTransport(4));
+            ga.setMaxBatchesInFlight(4);
+            ga.setEventPriority(GameAnalytics.EventCategory.Design, GameAnalytics.EventPriority.High);
+            startSession(ga);
+            Gdx.app.setLogLevel(Application.LOG_INFO);
+
+            server.setLatencyMillis(200);
+            server.failNextRequests(1, 503);
+            for (int i = 0; i < 1000; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            ga.flushQueueImmediately();
+            // the failed batch is sent again after the backoff
+            for (int i = 0; i < 50 && ga.getMetrics().getPendingRetryEventCount() == 0; i++)
+                Thread.sleep(10);
+            ga.flushQueueImmediately();
+
+            // ten batches, sent one after another they would take two seconds
+            Assert.assertTrue(server.awaitEvents(AnnotatedEvent.CATEGORY_DESIGN, 1000, 1000));
+            Assert.assertEquals(4, server.getMaxConcurrentRequests());
+            Assert.assertEquals(1, ga.getMetrics().getStatusCodeCount(503));
+        } finally {
+            Gdx.app.setLogLevel(formerLogLevel);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentFlushWorker() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        int formerLogLevel = Gdx.app.getLogLevel();
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            // runs every job on a thread of its own
+            ga.setFlushWorker(new FlushWorker() {
+                @Override
+                public void execute(Runnable job) {
+                    new Thread(job).start();
+                }
+
+                @Override
+                public void dispose() {
+                }
+            });
+            ga.setTransport(new ConcurrentTransport(4));
+            ga.setMaxBatchesInFlight(4);
+            Gdx.app.setLogLevel(Application.LOG_INFO);
+
+            for (int session = 0; session < 3; session++) {
+                startSession(ga);
+                for (int i = 0; i < 300; i++) {
+                    ga.submitDesignEvent("kill:robot:blue");
+                    if (i % 30 == 0)
+                        ga.flushQueueImmediately();
+                }
+                // events submitted while the next session initializes would overflow the lane
+                Assert.assertTrue(ga.closeSession().await(5000));
+            }
+
+            Assert.assertEquals(900, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(0, ga.getMetrics().getErrorResponseCount());
+        } finally {
+            Gdx.app.setLogLevel(formerLogLevel);
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFlushHandles() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+            server.setLatencyMillis(100);
+
+            for (int i = 0; i < 150; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            FlushHandle flush = ga.flushQueueImmediately();
+            final AtomicInteger listenerCalls = new AtomicInteger();
+            flush.addListener(new FlushHandle.Listener() {
+                @Override
+                public void flushDone(FlushHandle handle) {
+                    listenerCalls.incrementAndGet();
+                }
+            });
+            // two batches, the second one is drained without waiting for the flush policy
+            Assert.assertTrue(flush.await(2000));
+            Assert.assertTrue(flush.isDone());
+            Assert.assertEquals(150, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(1, listenerCalls.get());
+
+            // nothing queued
+            Assert.assertTrue(ga.flushQueueImmediately().isSuccessful());
+
+            server.failNextRequests(1, 503);
+            ga.submitDesignEvent("kill:robot:blue");
+            FlushHandle failedFlush = ga.flushQueueImmediately();
+            Assert.assertFalse(failedFlush.await(2000));
+            Assert.assertTrue(failedFlush.isDone());
+
+            // the failed event is sent again, together with session_end
+            FlushHandle close = ga.closeSession();
+            long start = System.currentTimeMillis();
+            Assert.assertTrue(close.await(2000));
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+            Assert.assertEquals(1, server.getEventCount(AnnotatedEvent.CATEGORY_SESSION_END));
+            Assert.assertEquals(151, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFlushHandleWaitsForOvertakenEvents() throws Exception {
+        final StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            startSession(ga);
+            ga.setFlushPolicy(new IntervalFlushPolicy(20, 1));
+            server.setLatencyMillis(200);
+
+            // design events go to the low lane, one per request
+            ga.submitDesignEvent("kill:robot:blue");
+            ga.submitDesignEvent("kill:robot:red");
+            FlushHandle flush = ga.flushQueueImmediately();
+            final AtomicInteger deliveredWhenDone = new AtomicInteger(-1);
+            flush.addListener(new FlushHandle.Listener() {
+                @Override
+                public void flushDone(FlushHandle handle) {
+                    deliveredWhenDone.set(server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+                }
+            });
+            // queued after the flush, but sent before the second design event
+            ga.submitErrorEvent(GameAnalytics.ErrorType.critical, "Out of memory");
+
+            Assert.assertTrue(flush.await(5000));
+            Assert.assertEquals(2, deliveredWhenDone.get());
+            Assert.assertTrue(server.awaitEvents(AnnotatedEvent.CATEGORY_ERROR, 1, 2000));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testFormerPrefsTakenOver() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        File gamePrefsFile = File.createTempFile("gdxgameanalytics", ".prefs");
+        gamePrefsFile.delete();
+        String prefsName = "gdxgameanalytics-test-" + System.nanoTime();
+        try {
+            Preferences gamePrefs = new HeadlessPreferences(new FileHandle(gamePrefsFile));
+            gamePrefs.putString("ga_userid", "former-user");
+            gamePrefs.putInteger("ga_sessionnum", 4);
+            gamePrefs.putInteger("ga_transactionnum", 10);
+            gamePrefs.flush();
+
+            GameAnalytics ga = newGameAnalytics(server);
+            ga.setPrefs(gamePrefs);
+            ga.setPrefsName(prefsName);
+            startSession(ga);
+            ga.submitBusinessEvent("boost", "boost01", 99, "USD");
+            Assert.assertTrue(ga.closeSession().await(5000));
+
+            JsonValue user = null;
+            JsonValue business = null;
+            for (JsonValue event : server.getEvents()) {
+                if (AnnotatedEvent.CATEGORY_USER.equals(event.getString("category")))
+                    user = event;
+                else if (AnnotatedEvent.CATEGORY_BUSINESS.equals(event.getString("category")))
+                    business = event;
+            }
+            Assert.assertEquals("former-user", user.getString("user_id"));
+            Assert.assertEquals(5, user.getInt("session_num"));
+            Assert.assertEquals(11, business.getInt("transaction_num"));
+
+            // the game's preferences are not written anymore
+            Preferences reloaded = new HeadlessPreferences(new FileHandle(gamePrefsFile));
+            Assert.assertEquals(4, reloaded.getInteger("ga_sessionnum"));
+            Assert.assertEquals(10, reloaded.getInteger("ga_transactionnum"));
+            ga.dispose();
+            Assert.assertEquals(5, new HeadlessPreferences(prefsName, ".prefs/").getInteger("ga_sessionnum"));
+        } finally {
+            server.stop();
+            gamePrefsFile.delete();
+            Gdx.files.external(".prefs/" + prefsName).delete();
+        }
+    }
+
+    @Test
+    public void testCrashSpooledAndUploadedOnNextStart() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        File spoolFile = File.createTempFile("gdxgameanalytics", ".spool");
+        spoolFile.delete();
+        try {
+            GameAnalytics crashed = newGameAnalytics(server);
+            crashed.setCrashSpoolFile(new FileHandle(spoolFile));
+            startSession(crashed);
+            // Gdx.net sends one request at a time, a delayed session start would hold up the next instance's init
+            Assert.assertTrue(server.awaitEvents(AnnotatedEvent.CATEGORY_USER, 1, 2000));
 
-        //Error event
-        ga.submitErrorEvent(GameAnalytics.ErrorType.error, "Ohohoh");
+            // no network on the crash path
+            server.setLatencyMillis(5000);
+            long start = System.currentTimeMillis();
+            String trace = crashed.sendThrowableAsErrorEventSync(new IllegalStateException("crash"));
+            Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+            Assert.assertTrue(trace.startsWith("java.lang.IllegalStateException: crash"));
+            Assert.assertTrue(spoolFile.exists());
+            crashed.dispose();
+            server.setLatencyMillis(0);
 
-        // Transaction
-        ga.submitBusinessEvent("type", "item", 100, "USD");
+            GameAnalytics next = newGameAnalytics(server);
+            next.setCrashSpoolFile(new FileHandle(spoolFile));
+            startSession(next);
+            Assert.assertTrue(server.awaitEvents(AnnotatedEvent.CATEGORY_ERROR, 1, 2000));
+            JsonValue crashedSessionStart = null;
+            JsonValue error = null;
+            for (JsonValue event : server.getEvents()) {
+                String category = event.getString("category");
+                if (crashedSessionStart == null && AnnotatedEvent.CATEGORY_USER.equals(category))
+                    crashedSessionStart = event;
+                else if (AnnotatedEvent.CATEGORY_ERROR.equals(category))
+                    error = event;
+            }
+            // reported for the session that crashed
+            Assert.assertEquals(crashedSessionStart.getString("session_id"), error.getString("session_id"));
+            Assert.assertEquals("error", error.getString("severity"));
+            Assert.assertTrue(error.getString("message").startsWith("java.lang.IllegalStateException: crash"));
+
+            for (int i = 0; i < 100 && spoolFile.exists(); i++)
+                Thread.sleep(20);
+            Assert.assertFalse(spoolFile.exists());
+        } finally {
+            spoolFile.delete();
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            AnalyticsMetrics metrics = ga.getMetrics();
+            final AtomicInteger notifications = new AtomicInteger();
+            metrics.addListener(new AnalyticsMetrics.Listener() {
+                @Override
+                public void flushCompleted(AnalyticsMetrics metrics) {
+                    notifications.incrementAndGet();
+                }
+            });
+            startSession(ga);
+
+            server.failNextRequests(1, 503);
+            for (int i = 0; i < 10; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            Assert.assertTrue(metrics.getQueueDepth() >= 10);
+            for (int i = 0; i < 100 && metrics.getStatusCodeCount(503) == 0; i++) {
+                ga.flushQueueImmediately();
+                Thread.sleep(20);
+            }
+
+            for (int i = 0; i < 10; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            for (int i = 0; i < 100 && (metrics.getQueueDepth() > 0 || metrics.getPendingRetryEventCount() > 0
+                    || notifications.get() < metrics.getRequestCount()); i++) {
+                ga.flushQueueImmediately();
+                Thread.sleep(20);
+            }
+
+            Assert.assertEquals(0, metrics.getQueueDepth());
+            Assert.assertEquals(1, metrics.getStatusCodeCount(503));
+            Assert.assertEquals(1, metrics.getErrorResponseCount());
+            Assert.assertEquals(0, metrics.getFailedFlushAttempts());
+            Assert.assertEquals(metrics.getRequestCount() - 1, metrics.getStatusCodeCount(200));
+            Assert.assertEquals(metrics.getRequestCount(), metrics.getFlushLatency().getCount());
+            Assert.assertEquals(metrics.getRequestCount(), notifications.get());
+            Assert.assertEquals(server.getEventCount(AnnotatedEvent.CATEGORY_USER)
+                    + server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN), metrics.getSentEventCount());
+            Assert.assertTrue(metrics.getQueuedEventCount() >= 21);
+            Assert.assertTrue(metrics.getCompressedBytes() < server.getReceivedBytes());
+            Assert.assertTrue(metrics.getUncompressedBytes() > metrics.getCompressedBytes());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception {
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(KEY_SANDBOX_GAME, KEY_SANDBOX_SECRET);
+        try {
+            GameAnalytics ga = newGameAnalytics(server);
+            AnalyticsMetrics metrics = ga.getMetrics();
+            ga.setCompressionThreshold(Integer.MAX_VALUE);
+            startSession(ga);
+
+            for (int i = 0; i < 20; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            flushUntil(ga, server, AnnotatedEvent.CATEGORY_DESIGN, 20);
+            Assert.assertEquals(20, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertEquals(metrics.getUncompressedBytes(), metrics.getCompressedBytes());
+
+            ga.setCompressionThreshold(0);
+            ga.setCompressionLevel(1);
+            long formerUncompressed = metrics.getUncompressedBytes();
+            long formerCompressed = metrics.getCompressedBytes();
+            for (int i = 0; i < 20; i++)
+                ga.submitDesignEvent("kill:robot:blue");
+            flushUntil(ga, server, AnnotatedEvent.CATEGORY_DESIGN, 40);
+            Assert.assertEquals(40, server.getEventCount(AnnotatedEvent.CATEGORY_DESIGN));
+            Assert.assertTrue(metrics.getCompressedBytes() - formerCompressed
+                    < (metrics.getUncompressedBytes() - formerUncompressed) / 4);
+        } finally {
+            server.stop();
+        }
+    }
 
-        Thread.sleep(1000); // give the HTTP request some time - this is needed just for Unit Tests
+    private GameAnalytics newGameAnalytics(StubGameAnalyticsServer server) {
+        return newGameAnalytics(server, new GameAnalytics());
+    }
+
+    private GameAnalytics newGameAnalytics(StubGameAnalyticsServer server, GameAnalytics ga) {
+        instances.add(ga);
+        ga.url = server.getUrl();
+        ga.setGameKey(KEY_SANDBOX_GAME);
+        ga.setGameSecretKey(KEY_SANDBOX_SECRET);
+        ga.setPlatform(GameAnalytics.Platform.Linux);
+        ga.setPlatformVersionString("1");
+        return ga;
+    }
+
+    private static void startSession(GameAnalytics ga) throws InterruptedException {
+        ga.startSession();
+        for (int i = 0; i < 100 && !ga.isInitialized(); i++)
+            Thread.sleep(20);
+        Assert.assertTrue(ga.isInitialized());
+    }
+
+    private static void flushUntil(GameAnalytics ga, StubGameAnalyticsServer server, String category, int count)
+            throws InterruptedException {
+        for (int i = 0; i < 250 && server.getEventCount(category) < count; i++) {
+            ga.flushQueueImmediately();
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * the headless backend's Gdx.net sends one request at a time
+     */
+    private static class ConcurrentTransport implements Transport {
+        private final NetJavaImpl[] nets;
+        private final AtomicInteger next = new AtomicInteger();
 
-        //Finally close session by sending session_end event
-        ga.closeSession();
+        ConcurrentTransport(int threads) {
+            nets = new NetJavaImpl[threads];
+            for (int i = 0; i < threads; i++)
+                nets[i] = new NetJavaImpl();
+        }
 
-        Thread.sleep(1000); // give the HTTP request some time - this is needed just for Unit Tests
+        @Override
+        public void sendHttpRequest(Net.HttpRequest request, Net.HttpResponseListener listener) {
+            nets[(next.getAndIncrement() & Integer.MAX_VALUE) % nets.length].sendHttpRequest(request, listener);
+        }
+    }
 
+    private void submitEvents(GameAnalytics ga) {
+        ga.submitDesignEvent("kill:robot:blue");
+        ga.submitDesignEvent("Tutorial:Step1:Finished", 100f);
+        ga.submitProgressionEvent(GameAnalytics.ProgressionStatus.Complete, "World2", "Level1", "Arena2", 200, 1);
+        ga.submitResourceEvent(GameAnalytics.ResourceFlowType.Source, "silver", "Consumable", "Mana potion", 5);
+        ga.submitDesignEvent(KILL_ROBOT);
+        ga.submitProgressionEvent(ARENA_COMPLETE, 200, 1);
+        ga.submitResourceEvent(GOLD_SOURCE, 5);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class GzipHmacContextTest {
+    private static final String SECRET_KEY = "16813a12f718bc5c620f56944e1abc3ea13ccbac";
+
+    @Test
+    public void testCompressAndSign() throws Exception {
+        GzipHmacContext context = new GzipHmacContext(32);
+        Random random = new Random(42);
+
+        // reused for payloads of growing and shrinking size, the output buffer has to grow on the way
+        for (int size : new int[]{0, 100, 50000, 10, 200000}) {
+            byte[] content = new byte[size + 7];
+            for (int i = 0; i < content.length; i++)
+                // some redundancy like json, some noise to defeat the compression
+                content[i] = (byte) (i % 3 == 0 ? random.nextInt() : 'a' + i % 20);
+
+            Mac mac = context.getMac(SECRET_KEY);
+            context.compress(content, size, mac);
+            byte[] signature = mac.doFinal();
+            byte[] compressed = Arrays.copyOf(context.getOutput(), context.getOutputLength());
+
+            Assert.assertArrayEquals(Arrays.copyOf(content, size), gunzip(compressed));
+            Assert.assertArrayEquals(hmac(compressed), signature);
+        }
+
+        context.dispose();
+    }
+
+    @Test
+    public void testLevels() throws Exception {
+        GzipHmacContext context = new GzipHmacContext(32);
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 200; i++)
+            json.append("{\"category\":\"design\",\"client_ts\":").append(1525600000 + i * 7)
+                    .append(",\"event_id\":\"kill:robot:level").append(i % 13).append("\"},");
+        byte[] content = json.toString().getBytes("UTF-8");
+
+        context.setLevel(1);
+        context.compress(content, content.length, null);
+        byte[] fastest = Arrays.copyOf(context.getOutput(), context.getOutputLength());
+        context.setLevel(9);
+        context.compress(content, content.length, null);
+        byte[] smallest = Arrays.copyOf(context.getOutput(), context.getOutputLength());
+
+        Assert.assertArrayEquals(content, gunzip(fastest));
+        Assert.assertArrayEquals(content, gunzip(smallest));
+        Assert.assertTrue(smallest.length < fastest.length);
+        context.dispose();
+    }
+
+    @Test
+    public void testMacKeptForSameKey() throws Exception {
+        GzipHmacContext context = new GzipHmacContext(32);
+        Mac mac = context.getMac(SECRET_KEY);
+        Assert.assertSame(mac, context.getMac(SECRET_KEY));
+        Assert.assertNotSame(mac, context.getMac("other"));
+        context.dispose();
+    }
+
+    private static byte[] hmac(byte[] content) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET_KEY.getBytes(), "HmacSHA256"));
+        return mac.doFinal(content);
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0)
+            outputStream.write(buffer, 0, read);
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getPercentile(99));
+        Assert.assertEquals(0, histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i);
+
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(5050, histogram.getSum());
+        Assert.assertEquals(100, histogram.getMax());
+        Assert.assertEquals(50.5, histogram.getMean(), 0.001);
+        // 50 is counted in the bucket up to 64, 99 in the last one, which is capped by the maximum
+        Assert.assertEquals(64, histogram.getPercentile(50));
+        Assert.assertEquals(100, histogram.getPercentile(99));
+        Assert.assertEquals(1, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testBuckets() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(3);
+        histogram.record(4);
+        histogram.record(Long.MAX_VALUE);
+
+        Assert.assertEquals(2, histogram.getBucketValueCount(0));
+        Assert.assertEquals(2, histogram.getBucketValueCount(2));
+        Assert.assertEquals(1, histogram.getBucketValueCount(histogram.getBucketCount() - 1));
+        Assert.assertEquals(Long.MAX_VALUE, histogram.getMax());
+    }
+}
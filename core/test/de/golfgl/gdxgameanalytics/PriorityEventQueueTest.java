@@ -0,0 +1,77 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Array;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PriorityEventQueueTest {
+
+    @Test
+    public void testLanes() {
+        final Array<AnnotatedEvent> dropped = new Array<>();
+        PriorityEventQueue queue = new PriorityEventQueue(new int[]{2, 4}, new boolean[]{true, false},
+                new PriorityEventQueue.DropListener() {
+                    @Override
+                    public void dropped(AnnotatedEvent event) {
+                        dropped.add(event);
+                    }
+                });
+
+        AnnotatedEvent[] low = new AnnotatedEvent[6];
+        for (int i = 0; i < low.length; i++) {
+            low[i] = event(AnnotatedEvent.CATEGORY_DESIGN, i);
+            queue.offer(low[i], 1);
+        }
+        AnnotatedEvent[] high = new AnnotatedEvent[3];
+        for (int i = 0; i < high.length; i++) {
+            high[i] = event(AnnotatedEvent.CATEGORY_BUSINESS, i);
+            queue.offer(high[i], 0);
+        }
+
+        // low lane dropped its oldest events, high lane spilled
+        Assert.assertEquals(2, queue.getDropCount(1));
+        Assert.assertEquals(0, queue.getDropCount(0));
+        Assert.assertSame(low[0], dropped.get(0));
+        Assert.assertSame(low[1], dropped.get(1));
+        Assert.assertEquals(3, queue.size(0));
+        Assert.assertEquals(2, queue.capacity(0));
+        Assert.assertEquals(7, queue.size());
+
+        // high priority first
+        for (int i = 0; i < high.length; i++)
+            Assert.assertSame(high[i], queue.poll());
+        for (int i = 2; i < low.length; i++)
+            Assert.assertSame(low[i], queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testSpilledLaneKeepsOrder() {
+        PriorityEventQueue queue = new PriorityEventQueue(new int[]{2}, new boolean[]{true}, null);
+
+        AnnotatedEvent[] events = new AnnotatedEvent[6];
+        for (int i = 0; i < events.length; i++)
+            events[i] = event(AnnotatedEvent.CATEGORY_BUSINESS, i);
+        for (int i = 0; i < 3; i++)
+            queue.offer(events[i], 0);
+
+        // polling frees room in the ring buffer, but the events spilled before must come first
+        Assert.assertSame(events[0], queue.poll());
+        for (int i = 3; i < events.length; i++)
+            queue.offer(events[i], 0);
+        for (int i = 1; i < events.length; i++)
+            Assert.assertSame(events[i], queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+
+        // drained, the ring buffer is used again
+        queue.offer(events[0], 0);
+        Assert.assertEquals(1, queue.size(0));
+        Assert.assertSame(events[0], queue.poll());
+    }
+
+    private static AnnotatedEvent event(String category, long clientTs) {
+        return new AnnotatedEvent().set(category, clientTs, "session", 1);
+    }
+}
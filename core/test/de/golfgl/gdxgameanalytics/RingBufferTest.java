@@ -0,0 +1,69 @@
+package de.golfgl.gdxgameanalytics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+public class RingBufferTest {
+
+    @Test
+    public void testOfferAndPoll() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        Assert.assertEquals(4, buffer.capacity());
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertNull(buffer.poll());
+
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++)
+                Assert.assertTrue(buffer.offer(i));
+            Assert.assertFalse(buffer.offer(4));
+            Assert.assertEquals(4, buffer.size());
+
+            for (int i = 0; i < 4; i++)
+                Assert.assertEquals(i, (int) buffer.poll());
+            Assert.assertNull(buffer.poll());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        final int producers = 4;
+        final int perProducer = 50000;
+        final CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(producer * perProducer + i))
+                            Thread.yield();
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        // every element must arrive exactly once, and in order per producer
+        int[] lastSeen = new int[producers];
+        for (int p = 0; p < producers; p++)
+            lastSeen[p] = -1;
+        int received = 0;
+        while (received < producers * perProducer) {
+            Integer element = buffer.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = element / perProducer;
+            Assert.assertEquals(lastSeen[producer] + 1, element % perProducer);
+            lastSeen[producer] = element % perProducer;
+            received++;
+        }
+        done.await();
+        Assert.assertTrue(buffer.isEmpty());
+    }
+}
@@ -12,28 +12,26 @@ public class DesktopGameAnalytics extends GameAnalytics {
     }
 
     @Override
-    public void closeSession() {
-        super.closeSession();
+    public FlushHandle closeSession() {
+        final FlushHandle handle = super.closeSession();
 
-        //Spawn thread to keep application running when closing and need to flush data.
-        new Thread() {
-            @Override
-            public void run() {
-                int waitTime = 0;
-                while (flushingQueue && waitTime < 30) {
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ignored) {
-                        // do nothing
-                    }
-                    waitTime++;
+        //Spawn thread to keep application running when closing and need to flush data. It ends as soon as the
+        //data is sent
+        if (!handle.isDone()) {
+            new Thread() {
+                @Override
+                public void run() {
+                    handle.await(3000);
                 }
-            }
-        }.start();
+            }.start();
+        }
+        return handle;
     }
 
     /**
-     * Registers a handler for catching all uncaught exceptions to send them to GA. Exits the app afterwards
+     * Registers a handler for catching all uncaught exceptions to send them to GA. Exits the app afterwards.
+     * Set a crash spool file to send crashes on next start instead of blocking up to six seconds, see
+     * {@link #setCrashSpoolFile(com.badlogic.gdx.files.FileHandle)}
      */
     public void registerUncaughtExceptionHandler() {
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
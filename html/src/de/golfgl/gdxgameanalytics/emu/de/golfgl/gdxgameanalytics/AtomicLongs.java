@@ -0,0 +1,52 @@
+package de.golfgl.gdxgameanalytics;
+
+/**
+ * GWT version of the atomic longs: there is only one thread, so a plain array does
+ */
+final class AtomicLongs {
+    private final long[] values;
+
+    AtomicLongs(int length) {
+        values = new long[length];
+    }
+
+    int length() {
+        return values.length;
+    }
+
+    long get(int i) {
+        return values[i];
+    }
+
+    void set(int i, long value) {
+        values[i] = value;
+    }
+
+    void lazySet(int i, long value) {
+        values[i] = value;
+    }
+
+    boolean compareAndSet(int i, long expect, long update) {
+        if (values[i] != expect)
+            return false;
+        values[i] = update;
+        return true;
+    }
+
+    long getAndIncrement(int i) {
+        return values[i]++;
+    }
+
+    long incrementAndGet(int i) {
+        return ++values[i];
+    }
+
+    long decrementAndGet(int i) {
+        return --values[i];
+    }
+
+    long addAndGet(int i, long delta) {
+        values[i] += delta;
+        return values[i];
+    }
+}
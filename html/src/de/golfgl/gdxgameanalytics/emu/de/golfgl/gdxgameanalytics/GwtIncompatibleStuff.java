@@ -2,6 +2,9 @@ package de.golfgl.gdxgameanalytics;
 
 import com.badlogic.gdx.Application;
 import com.badlogic.gdx.Net;
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.UnsupportedEncodingException;
 
 /**
  * Created by Benjamin Schulte on 05.05.2018.
@@ -24,13 +27,40 @@ public class GwtIncompatibleStuff {
      return s4() + s4() + '-' + s4() + '-' + s4() + '-' + s4() + '-' + s4() + s4() + s4();
     }-*/;
 
+    /**
+     * @return worker running flushes immediately - there are no threads on GWT, and sending is async anyway
+     */
+    protected static FlushWorker createFlushWorker() {
+        return new FlushWorker() {
+            @Override
+            public void execute(Runnable job) {
+                job.run();
+            }
+
+            @Override
+            public void dispose() {
+                // nothing to do
+            }
+        };
+    }
+
     protected static GameAnalytics.Platform getDefaultPlatform(Application.ApplicationType type) {
         return GameAnalytics.Platform.WebGL;
     }
 
-    protected static String setHttpRequestContent(Net.HttpRequest request, String content, String secretKey) {
-        String hash = GwtIncompatibleStuff.generateHash(content, secretKey);
-        request.setContent(content);
+    /**
+     * @return false, there is no Deflater on GWT. Requests are sent uncompressed
+     */
+    protected static boolean isCompressionSupported() {
+        return false;
+    }
+
+    protected static String setHttpRequestContent(Net.HttpRequest request, byte[] content, int length,
+                                                  String secretKey, int compressionThreshold,
+                                                  int compressionLevel) {
+        String contentString = decodeUtf8(content, length);
+        String hash = GwtIncompatibleStuff.generateHash(contentString, secretKey);
+        request.setContent(contentString);
         return hash;
     }
 
@@ -38,6 +68,39 @@ public class GwtIncompatibleStuff {
         throw new UnsupportedOperationException("Not supported on GWT");
     }
 
+    protected static String decodeUtf8(byte[] content, int length) {
+        try {
+            return new String(content, 0, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static void appendToFile(FileHandle file, String content, boolean sync) {
+        // no fsync on GWT
+        file.writeString(content, true, "UTF-8");
+    }
+
+    protected static void replaceFile(FileHandle file, String content) {
+        file.writeString(content, false, "UTF-8");
+    }
+
+    protected static void appendToFile(FileHandle file, byte[] content, int length, boolean sync) {
+        file.writeBytes(content, 0, length, true);
+    }
+
+    protected static void replaceFile(FileHandle file, byte[] content, int length) {
+        file.writeBytes(content, 0, length, false);
+    }
+
+    protected static void awaitDone(FlushHandle handle, long timeoutMillis) {
+        // no blocking on GWT
+    }
+
+    protected static void signalDone(FlushHandle handle) {
+        // nobody waits on GWT
+    }
+
     public static String getThrowableStacktraceAsString(Throwable e) {
         return e.getMessage();
     }
@@ -22,9 +22,11 @@ public class IosGameAnalytics extends GameAnalytics {
     }
 
     /**
-     * Registers a handler for catching all uncaught exceptions to send them to GA. Exits the app afterwards
+     * Registers a handler for catching all uncaught exceptions to send them to GA. Exits the app afterwards.
+     * Crashes are spooled to local storage and sent on next session start, unless another crash spool file was set.
      */
     public void registerUncaughtExceptionHandler() {
+        useDefaultCrashSpool();
         Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
             public void uncaughtException(Thread t, Throwable e) {
                 String exceptionAsString = null;
@@ -0,0 +1,336 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator reporting the throughput of the client: simulates players submitting a mix of events from a
+ * number of threads to one {@link GameAnalytics} instance sending to a {@link StubGameAnalyticsServer} on localhost.
+ * <p>
+ * Options are given as name=value arguments, e.g.
+ * <pre>
+ *     ./gradlew loadtest:run --args="players=5000 threads=8 seconds=60 rate=2 latency=50"
+ * </pre>
+ * <ul>
+ * <li>players: number of simulated player sessions, default 1000</li>
+ * <li>threads: number of submitting threads, players are distributed over them, default 4</li>
+ * <li>seconds: duration of submitting, default 30</li>
+ * <li>rate: events per second per player, 0 for submitting as fast as possible, default 0</li>
+ * <li>mix: weights of the event types, default design:60,progression:15,resource:15,business:5,error:5</li>
+ * <li>handles: true for submitting precompiled {@link EventId}s instead of strings, default false</li>
+ * <li>latency: milliseconds the stub server takes to answer a request, default 0</li>
+ * <li>queue: queue capacity of the instance, default 512</li>
+ * <li>batches: maximum batches in flight, default 1</li>
+ * </ul>
+ * Reports events per second submitted and delivered, submit and flush latency percentiles, dropped, shed and
+ * rejected events and the bytes sent before and after compression.
+ */
+public class LoadTest {
+    private static final String GAME_KEY = "5c6bcb5402204249437fb5a7a80a4959";
+    private static final String SECRET_KEY = "16813a12f718bc5c620f56944e1abc3ea13ccbac";
+    // every nth submit is timed, so the clock and the shared histogram do not dominate the measurement
+    private static final int SUBMIT_SAMPLE_INTERVAL = 16;
+
+    private static final int DESIGN = 0;
+    private static final int PROGRESSION = 1;
+    private static final int RESOURCE = 2;
+    private static final int BUSINESS = 3;
+    private static final int ERROR = 4;
+    private static final String[] EVENT_TYPES = {"design", "progression", "resource", "business", "error"};
+
+    private static final EventId[] DESIGN_IDS = {
+            GameAnalytics.designEvent("kill:robot:blue"),
+            GameAnalytics.designEvent("kill:robot:red"),
+            GameAnalytics.designEvent("pickup:coin"),
+            GameAnalytics.designEvent("ui:menu:open")};
+    private static final EventId[] PROGRESSION_IDS = {
+            GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Start, "world01", "level01"),
+            GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Complete, "world01", "level01"),
+            GameAnalytics.progressionEvent(GameAnalytics.ProgressionStatus.Fail, "world01", "level02")};
+    private static final EventId[] RESOURCE_IDS = {
+            GameAnalytics.resourceEvent(GameAnalytics.ResourceFlowType.Source, "gems", "reward", "chest"),
+            GameAnalytics.resourceEvent(GameAnalytics.ResourceFlowType.Sink, "gems", "shop", "sword")};
+
+    private int players = 1000;
+    private int threads = 4;
+    private int seconds = 30;
+    private float rate;
+    private final int[] mixWeights = {60, 15, 15, 5, 5};
+    private boolean handles;
+    private long latencyMillis;
+    private int queueCapacity = 512;
+    private int maxBatchesInFlight = 1;
+
+    private final Histogram submitLatency = new Histogram();
+    private final AtomicLong submittedEvents = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        try {
+            loadTest.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        loadTest.run();
+        System.exit(0);
+    }
+
+    void parseArguments(String[] args) {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0)
+                throw new IllegalArgumentException("Arguments must be name=value: " + arg);
+            String name = arg.substring(0, separator);
+            String value = arg.substring(separator + 1);
+
+            if (name.equals("players"))
+                players = Integer.parseInt(value);
+            else if (name.equals("threads"))
+                threads = Integer.parseInt(value);
+            else if (name.equals("seconds"))
+                seconds = Integer.parseInt(value);
+            else if (name.equals("rate"))
+                rate = Float.parseFloat(value);
+            else if (name.equals("mix"))
+                parseMix(value);
+            else if (name.equals("handles"))
+                handles = Boolean.parseBoolean(value);
+            else if (name.equals("latency"))
+                latencyMillis = Long.parseLong(value);
+            else if (name.equals("queue"))
+                queueCapacity = Integer.parseInt(value);
+            else if (name.equals("batches"))
+                maxBatchesInFlight = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown option: " + name);
+        }
+
+        if (players < 1 || threads < 1 || threads > players || seconds < 1)
+            throw new IllegalArgumentException("Need at least one player per thread and one second");
+    }
+
+    private void parseMix(String mix) {
+        for (int type = 0; type < mixWeights.length; type++)
+            mixWeights[type] = 0;
+
+        for (String part : mix.split(",")) {
+            String[] typeAndWeight = part.split(":");
+            int type = -1;
+            for (int i = 0; i < EVENT_TYPES.length; i++)
+                if (EVENT_TYPES[i].equals(typeAndWeight[0]))
+                    type = i;
+            if (type < 0 || typeAndWeight.length != 2)
+                throw new IllegalArgumentException("Mix must be a list of type:weight, types are design, "
+                        + "progression, resource, business and error: " + mix);
+            mixWeights[type] = Integer.parseInt(typeAndWeight[1]);
+        }
+    }
+
+    void run() throws IOException, InterruptedException {
+        Gdx.app = new HeadlessApplication(new ApplicationAdapter() {
+        });
+        // logging would dominate the measurements
+        Gdx.app.setLogLevel(Application.LOG_ERROR);
+
+        StubGameAnalyticsServer server = new StubGameAnalyticsServer(GAME_KEY, SECRET_KEY);
+        server.setKeepEvents(false);
+        server.setLatencyMillis(latencyMillis);
+
+        GameAnalytics ga = new GameAnalytics(queueCapacity);
+        ga.url = server.getUrl();
+        ga.setGameKey(GAME_KEY);
+        ga.setGameSecretKey(SECRET_KEY);
+        ga.setPlatform(GameAnalytics.Platform.Linux);
+        ga.setPlatformVersionString("1");
+        ga.setOwnSessionEnabled(false);
+        ga.setMaxBatchesInFlight(maxBatchesInFlight);
+        ga.startSession();
+        for (int i = 0; i < 250 && !ga.isInitialized(); i++)
+            Thread.sleep(20);
+        if (!ga.isInitialized())
+            throw new IllegalStateException("Session not started");
+
+        PlayerSession[] sessions = new PlayerSession[players];
+        for (int i = 0; i < players; i++) {
+            sessions[i] = ga.openPlayerSession("player" + i, 1);
+            sessions[i].setCustom1("cohort" + (i % 10));
+        }
+
+        System.out.println(String.format(Locale.US, "Simulating %d players on %d threads for %d seconds, %s",
+                players, threads, seconds, rate > 0 ? rate + " events per second each" : "unthrottled"));
+
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + seconds * 1000000000L;
+        Thread[] submitters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            submitters[t] = new Thread(new Submitter(sessions, t, startNanos, endNanos), "Submitter" + t);
+            submitters[t].start();
+        }
+        for (Thread submitter : submitters)
+            submitter.join();
+        long submitNanos = System.nanoTime() - startNanos;
+
+        for (PlayerSession session : sessions)
+            session.close();
+        boolean drained = ga.closeSession().await(60000);
+        long totalNanos = System.nanoTime() - startNanos;
+
+        report(ga.getMetrics(), server, submitNanos, totalNanos, drained);
+
+        ga.dispose();
+        server.stop();
+        Gdx.app.exit();
+    }
+
+    private void report(AnalyticsMetrics metrics, StubGameAnalyticsServer server, long submitNanos,
+                        long totalNanos, boolean drained) {
+        long submitted = submittedEvents.get();
+        long sent = metrics.getSentEventCount();
+
+        System.out.println();
+        System.out.println(String.format(Locale.US, "Submitted events:  %,d (%,.0f/s)", submitted,
+                submitted * 1e9 / submitNanos));
+        System.out.println(String.format(Locale.US, "Delivered events:  %,d (%,.0f/s including drain)%s", sent,
+                sent * 1e9 / totalNanos, drained ? "" : ", queue not drained after 60s"));
+        System.out.println(String.format(Locale.US, "Left over:         %,d queued, %,d to retry, %d batches in flight",
+                metrics.getQueueDepth(), metrics.getPendingRetryEventCount(), metrics.getBatchesInFlight()));
+        System.out.println(String.format(Locale.US, "Dropped events:    %,d (high %,d, normal %,d, low %,d)",
+                metrics.getDroppedEventCount(),
+                metrics.getDroppedEventCount(GameAnalytics.EventPriority.High),
+                metrics.getDroppedEventCount(GameAnalytics.EventPriority.Normal),
+                metrics.getDroppedEventCount(GameAnalytics.EventPriority.Low)));
+        long shed = 0;
+        for (GameAnalytics.EventCategory category : GameAnalytics.EventCategory.values())
+            shed += metrics.getShedEventCount(category);
+        System.out.println(String.format(Locale.US, "Shed events:       %,d", shed));
+        System.out.println(String.format(Locale.US, "Rejected events:   %,d", metrics.getRejectedEventCount()));
+        System.out.println(String.format(Locale.US, "Submit latency:    p50 %,d ns, p99 %,d ns, max %,d ns",
+                submitLatency.getPercentile(50), submitLatency.getPercentile(99), submitLatency.getMax()));
+        Histogram flushLatency = metrics.getFlushLatency();
+        System.out.println(String.format(Locale.US, "Flush latency:     p50 %,d ms, p99 %,d ms, max %,d ms",
+                flushLatency.getPercentile(50), flushLatency.getPercentile(99), flushLatency.getMax()));
+        System.out.println(String.format(Locale.US, "Requests:          %,d (failed %,d, error responses %,d)",
+                metrics.getRequestCount(), metrics.getFailedRequestCount(), metrics.getErrorResponseCount()));
+        System.out.println(String.format(Locale.US, "Bytes on the wire: %,d (%,d uncompressed, %.1f bytes/event)",
+                server.getReceivedBytes(), metrics.getUncompressedBytes(),
+                sent > 0 ? (double) metrics.getCompressedBytes() / sent : 0));
+    }
+
+    private class Submitter implements Runnable {
+        private final PlayerSession[] sessions;
+        private final int firstPlayer;
+        private final long startNanos;
+        private final long endNanos;
+        private final Random random;
+        private final int totalWeight;
+
+        Submitter(PlayerSession[] sessions, int thread, long startNanos, long endNanos) {
+            this.sessions = sessions;
+            this.firstPlayer = thread;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            // same sequence on every run
+            random = new Random(thread);
+            int weights = 0;
+            for (int weight : mixWeights)
+                weights += weight;
+            totalWeight = weights;
+        }
+
+        @Override
+        public void run() {
+            int ownPlayers = (sessions.length - firstPlayer + threads - 1) / threads;
+            long submitted = 0;
+            int player = firstPlayer;
+
+            while (true) {
+                // with a rate every submit is paced, otherwise the clock is only read now and then
+                if (rate > 0 || (submitted & 255) == 0) {
+                    long now = System.nanoTime();
+                    if (now >= endNanos)
+                        break;
+                    if (rate > 0) {
+                        long dueEvents = (long) ((now - startNanos) / 1e9 * rate * ownPlayers);
+                        if (submitted >= dueEvents) {
+                            sleepQuietly(1);
+                            continue;
+                        }
+                    }
+                }
+
+                int type = nextEventType();
+                if (submitted % SUBMIT_SAMPLE_INTERVAL == 0) {
+                    long startSubmit = System.nanoTime();
+                    submit(sessions[player], type);
+                    submitLatency.record(System.nanoTime() - startSubmit);
+                } else
+                    submit(sessions[player], type);
+
+                submitted++;
+                player += threads;
+                if (player >= sessions.length)
+                    player = firstPlayer;
+            }
+
+            submittedEvents.addAndGet(submitted);
+        }
+
+        private int nextEventType() {
+            int value = random.nextInt(totalWeight);
+            int type = 0;
+            while (value >= mixWeights[type]) {
+                value -= mixWeights[type];
+                type++;
+            }
+            return type;
+        }
+
+        private void submit(PlayerSession session, int type) {
+            int variant = random.nextInt(4);
+            switch (type) {
+                case DESIGN:
+                    if (handles)
+                        session.submitDesignEvent(DESIGN_IDS[variant], variant);
+                    else
+                        session.submitDesignEvent(DESIGN_IDS[variant].eventId, variant);
+                    break;
+                case PROGRESSION:
+                    if (handles)
+                        session.submitProgressionEvent(PROGRESSION_IDS[variant % PROGRESSION_IDS.length]);
+                    else
+                        session.submitProgressionEvent(GameAnalytics.ProgressionStatus.Start, "world01",
+                                "level0" + variant, "");
+                    break;
+                case RESOURCE:
+                    if (handles)
+                        session.submitResourceEvent(RESOURCE_IDS[variant % 2], 10 + variant);
+                    else
+                        session.submitResourceEvent(GameAnalytics.ResourceFlowType.Source, "gems", "reward",
+                                "chest", 10 + variant);
+                    break;
+                case BUSINESS:
+                    session.submitBusinessEvent("boost", "boost0" + variant, 99, "USD");
+                    break;
+                case ERROR:
+                    session.submitErrorEvent(GameAnalytics.ErrorType.warning, "Texture missing: tile" + variant);
+                    break;
+            }
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
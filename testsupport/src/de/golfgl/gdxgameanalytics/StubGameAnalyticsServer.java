@@ -0,0 +1,341 @@
+package de.golfgl.gdxgameanalytics;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Base64Coder;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.JsonWriter;
+import com.badlogic.gdx.utils.ObjectIntMap;
+import com.badlogic.gdx.utils.StreamUtils;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * GameAnalytics REST API v2 stub on localhost for tests, benchmarks and the load test. Implements /init and /events
+ * like the real server: the Authorization header is verified against the HMAC of the body, gzipped bodies are
+ * inflated and events are parsed and kept.
+ * <p>
+ * Latency, error responses and throttling (429 above a number of requests per second) can be injected. Bodies above
+ * a maximum size are answered with 413, and events with an event id set as invalid are answered with 400 and the
+ * GameAnalytics validation error list. The other events of such a request are not kept.
+ */
+public class StubGameAnalyticsServer {
+    private final String secretKey;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Array<JsonValue> events = new Array<>();
+    private final ObjectIntMap<String> eventCounts = new ObjectIntMap<>();
+    private volatile boolean keepEvents = true;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+    private final AtomicInteger concurrentRequests = new AtomicInteger();
+    private final AtomicInteger maxConcurrentRequests = new AtomicInteger();
+    private final AtomicInteger failingRequests = new AtomicInteger();
+    private volatile int failureStatus = 500;
+    private volatile long latencyMillis;
+    private volatile int maxRequestsPerSecond;
+    private volatile int maxBodyBytes;
+    private volatile String invalidEventId;
+    private long throttleSecond;
+    private int throttleSecondRequests;
+    private long receivedBytes;
+    private int largestRequestBytes;
+
+    public StubGameAnalyticsServer(String gameKey, String secretKey) throws IOException {
+        this.secretKey = secretKey;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/v2/" + gameKey + "/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int concurrent = concurrentRequests.incrementAndGet();
+                int formerMax = maxConcurrentRequests.get();
+                while (concurrent > formerMax && !maxConcurrentRequests.compareAndSet(formerMax, concurrent))
+                    formerMax = maxConcurrentRequests.get();
+                try {
+                    handleRequest(exchange);
+                } finally {
+                    concurrentRequests.decrementAndGet();
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return url to set as {@link GameAnalytics#url}
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/v2/";
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param latencyMillis time every request is delayed before it is answered
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param count  number of next requests answered with status instead of being processed
+     * @param status e.g. 500 or 503
+     */
+    public void failNextRequests(int count, int status) {
+        failureStatus = status;
+        failingRequests.set(count);
+    }
+
+    /**
+     * @param maxRequestsPerSecond requests above this number within a second are answered with 429. 0 for no limit
+     */
+    public void setMaxRequestsPerSecond(int maxRequestsPerSecond) {
+        this.maxRequestsPerSecond = maxRequestsPerSecond;
+    }
+
+    /**
+     * @param maxBodyBytes requests with a larger body as sent are answered with 413. 0 for no limit
+     */
+    public void setMaxBodyBytes(int maxBodyBytes) {
+        this.maxBodyBytes = maxBodyBytes;
+    }
+
+    /**
+     * @param invalidEventId requests containing events with this event id are answered with 400. null to accept all
+     */
+    public void setInvalidEventId(String invalidEventId) {
+        this.invalidEventId = invalidEventId;
+    }
+
+    /**
+     * @param keepEvents false to only count received events, for long running benchmarks
+     */
+    public void setKeepEvents(boolean keepEvents) {
+        this.keepEvents = keepEvents;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return most requests handled at the same time
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests.get();
+    }
+
+    /**
+     * @return requests answered with an error, injected or because they were invalid
+     */
+    public int getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return sum of request body sizes as received, so after compression
+     */
+    public synchronized long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    public synchronized int getLargestRequestBytes() {
+        return largestRequestBytes;
+    }
+
+    /**
+     * @return events received with successful requests, in order of arrival
+     */
+    public synchronized Array<JsonValue> getEvents() {
+        return new Array<>(events);
+    }
+
+    public synchronized int getEventCount(String category) {
+        return eventCounts.get(category, 0);
+    }
+
+    /**
+     * @return true if the number of events of the category was received within the timeout
+     */
+    public boolean awaitEvents(String category, int count, long timeoutMillis) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while (getEventCount(category) < count) {
+            if (System.currentTimeMillis() > end)
+                return false;
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        byte[] body = StreamUtils.copyStreamToByteArray(exchange.getRequestBody());
+        synchronized (this) {
+            receivedBytes += body.length;
+            largestRequestBytes = Math.max(largestRequestBytes, body.length);
+        }
+
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (takeFailingRequest()) {
+            respond(exchange, failureStatus, "{\"error\":\"injected\"}");
+            return;
+        }
+        if (isThrottled()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 429, "{\"error\":\"too many requests\"}");
+            return;
+        }
+        if (maxBodyBytes > 0 && body.length > maxBodyBytes) {
+            respond(exchange, 413, "{\"error\":\"payload too large\"}");
+            return;
+        }
+
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "");
+            return;
+        }
+        if (!isSignatureValid(body, exchange.getRequestHeaders().getFirst("Authorization"))) {
+            respond(exchange, 401, "{\"error\":\"unauthorized\"}");
+            return;
+        }
+
+        JsonValue content;
+        try {
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+                body = gunzip(body);
+            content = new JsonReader().parse(new String(body, "UTF-8"));
+        } catch (Exception e) {
+            respond(exchange, 400, "{\"error\":\"invalid body\"}");
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/init"))
+            respond(exchange, 200, "{\"enabled\":true,\"server_ts\":" + System.currentTimeMillis() / 1000L +
+                    ",\"flags\":[]}");
+        else if (path.endsWith("/events") && content.isArray()) {
+            String validationErrors = validate(content);
+            if (validationErrors != null) {
+                respond(exchange, 400, validationErrors);
+                return;
+            }
+            synchronized (this) {
+                for (JsonValue event = content.child; event != null; event = event.next) {
+                    eventCounts.getAndIncrement(event.getString("category", ""), 0, 1);
+                    if (keepEvents)
+                        events.add(event);
+                }
+            }
+            respond(exchange, 200, "{}");
+        } else
+            respond(exchange, 404, "");
+    }
+
+    /**
+     * @return error list as sent by GameAnalytics, or null if all events are valid
+     */
+    private String validate(JsonValue events) {
+        String invalidEventId = this.invalidEventId;
+        if (invalidEventId == null)
+            return null;
+
+        StringBuilder errors = new StringBuilder();
+        for (JsonValue event = events.child; event != null; event = event.next) {
+            if (!invalidEventId.equals(event.getString("event_id", null)))
+                continue;
+
+            errors.append(errors.length() == 0 ? "[" : ",");
+            errors.append("{\"errors\":[{\"error_type\":\"invalid_event_id\",\"path\":\"/event_id\"}],\"event\":")
+                    .append(event.toJson(JsonWriter.OutputType.json)).append('}');
+        }
+        return errors.length() > 0 ? errors.append(']').toString() : null;
+    }
+
+    private boolean takeFailingRequest() {
+        while (true) {
+            int failing = failingRequests.get();
+            if (failing <= 0)
+                return false;
+            if (failingRequests.compareAndSet(failing, failing - 1))
+                return true;
+        }
+    }
+
+    private synchronized boolean isThrottled() {
+        if (maxRequestsPerSecond <= 0)
+            return false;
+
+        long second = System.currentTimeMillis() / 1000L;
+        if (second != throttleSecond) {
+            throttleSecond = second;
+            throttleSecondRequests = 0;
+        }
+        return ++throttleSecondRequests > maxRequestsPerSecond;
+    }
+
+    private boolean isSignatureValid(byte[] body, String authorization) {
+        if (authorization == null)
+            return false;
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secretKey.getBytes("UTF-8"), "HmacSHA256"));
+            byte[] expected = mac.doFinal(body);
+            return MessageDigest.isEqual(expected, Base64Coder.decode(authorization));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String response) throws IOException {
+        if (status != 200)
+            rejectedCount.incrementAndGet();
+
+        byte[] bytes = response.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length > 0 ? bytes.length : -1);
+        if (bytes.length > 0) {
+            OutputStream responseBody = exchange.getResponseBody();
+            responseBody.write(bytes);
+            responseBody.close();
+        }
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        try {
+            return StreamUtils.copyStreamToByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+}